@@ -0,0 +1,140 @@
+package SyntaxUtils;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.util.ArrayList;
+import java.util.List;
+
+import jigsaw.syntax.Lexicon;
+import jigsaw.syntax.SymbolTable;
+import LinguaView.syntax.CCGInternalNode;
+import LinguaView.syntax.CCGNode;
+import LinguaView.syntax.CCGTerminalNode;
+
+/**
+ * The treebanks of the benchmarks, and the lexicons, grammar and classifier
+ * trained on all of them. They are built once per JVM, in the same order,
+ * so every fork of a benchmark parses with the same model.
+ */
+public class BenchFixtures {
+	public static final int TRAINING_EPOCHS = 2;
+	public static final int TRAINING_BEAM = 16;
+
+	private static BenchFixtures _instance = null;
+
+	private List<List<CCGNode>> _treebanks = new ArrayList<List<CCGNode>>();
+	private Lexicon _wordLexicon;
+	private Lexicon _posLexicon;
+	private String[] _interpretation;
+	private CCGGrammar _grammar;
+	private PerceptronClassifier _classifier;
+
+	public static synchronized BenchFixtures get() throws IOException {
+		if (_instance == null)
+			_instance = new BenchFixtures();
+		return _instance;
+	}
+
+	private BenchFixtures() throws IOException {
+		SymbolTable tags = new SymbolTable();
+		_wordLexicon = new Lexicon(tags);
+		_posLexicon = new Lexicon(tags);
+		_grammar = CCGGrammar.createNewGrammar();
+		for (String bucket : FixtureGenerator.BUCKETS) {
+			List<CCGNode> trees = readTrees(bucket);
+			for (CCGNode tree : trees)
+				collect(tree);
+			_treebanks.add(trees);
+		}
+		_interpretation = new String[tags.size()];
+		for (int i = 0; i < _interpretation.length; ++i)
+			_interpretation[i] = tags.lookup(i);
+
+		_classifier = new PerceptronClassifier();
+		for (int epoch = 0; epoch < TRAINING_EPOCHS; ++epoch) {
+			for (List<CCGNode> trees : _treebanks) {
+				for (CCGNode tree : trees) {
+					CCGChart chart = new CCGChart(new SentenceForCCGParsing(tree), tree, _wordLexicon,
+							_posLexicon, _interpretation, _grammar, _classifier, TRAINING_BEAM);
+					chart.parse(true);
+					chart.updateClassifier();
+				}
+			}
+		}
+	}
+
+	private static List<CCGNode> readTrees(String bucket) throws IOException {
+		InputStream in = BenchFixtures.class.getResourceAsStream("/fixtures/" + bucket + ".auto");
+		if (in == null)
+			throw new IOException("no fixture of " + bucket);
+		BufferedReader br = new BufferedReader(new InputStreamReader(in, "UTF-8"));
+		List<CCGNode> trees = new ArrayList<CCGNode>();
+		try {
+			String source = null;
+			String s;
+			while ((s = br.readLine()) != null) {
+				s = s.trim();
+				if (s.length() == 0)
+					continue;
+				if (s.charAt(0) != '(') {
+					source = s;
+					continue;
+				}
+				trees.add(CCGNode.getCCGNodeFromString(s, source));
+				source = null;
+			}
+		} finally {
+			br.close();
+		}
+		return trees;
+	}
+
+	private void collect(CCGNode cn) {
+		if (cn.isTerminal()) {
+			CCGTerminalNode tn = (CCGTerminalNode) cn;
+			String tag = tn.category().toMarkedupString();
+			_wordLexicon.incrSeenCount(tn.word().toLowerCase(), tag, 1);
+			_posLexicon.incrSeenCount(tn.modPOS(), tag, 1);
+			return;
+		}
+		CCGInternalNode in = (CCGInternalNode) cn;
+		CCGNode[] daughters = in.daughters();
+		if (in.prole() == 1)
+			_grammar.increSeenCount(daughters[0].categoryToString(), cn.categoryToString());
+		else
+			_grammar.increSeenCount(daughters[0].categoryToString(), daughters[1].categoryToString(),
+					cn.categoryToString(), in.headChild);
+		for (CCGNode d : daughters)
+			collect(d);
+	}
+
+	/**
+	 * @param bucket one of FixtureGenerator.BUCKETS
+	 * @return the gold trees of the bucket
+	 */
+	public List<CCGNode> trees(String bucket) {
+		for (int b = 0; b < FixtureGenerator.BUCKETS.length; ++b) {
+			if (FixtureGenerator.BUCKETS[b].equals(bucket))
+				return _treebanks.get(b);
+		}
+		throw new IllegalArgumentException("unknown bucket " + bucket);
+	}
+
+	/**
+	 * A chart to parse the words of tree.
+	 */
+	public CCGChart newChart(CCGNode tree, int beam) {
+		return new CCGChart(new SentenceForCCGParsing(tree), null, _wordLexicon, _posLexicon,
+				_interpretation, _grammar, _classifier, beam);
+	}
+
+	public CCGGrammar grammar() {
+		return _grammar;
+	}
+
+	public PerceptronClassifier classifier() {
+		return _classifier;
+	}
+}
@@ -0,0 +1,66 @@
+package SyntaxUtils;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import LinguaView.syntax.CCGNode;
+import LinguaView.syntax.CCGTerminalNode;
+import LinguaView.syntax.CategoryObject;
+
+/**
+ * Parsing of the lexical categories of all the fixtures, in the
+ * predicate-argument and in the markedup forms, taken in turn.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class CategoryBenchmark {
+	private List<String> _predArgCats = new ArrayList<String>();
+	private List<String> _markedupCats = new ArrayList<String>();
+	private int _next = 0;
+
+	@Setup
+	public void setup() throws IOException {
+		BenchFixtures fixtures = BenchFixtures.get();
+		for (String bucket : FixtureGenerator.BUCKETS) {
+			for (CCGNode tree : fixtures.trees(bucket)) {
+				for (CCGTerminalNode tn : tree.collectTerminalNodes()) {
+					_predArgCats.add(tn.category().toPredArgCat());
+					_markedupCats.add(tn.category().toMarkedupString());
+				}
+			}
+		}
+	}
+
+	private int next() {
+		int i = _next;
+		_next = (_next + 1) % _predArgCats.size();
+		return i;
+	}
+
+	@Benchmark
+	public CategoryObject fromPredArgCat() {
+		return CategoryObject.fromPredArgCat(_predArgCats.get(next()));
+	}
+
+	@Benchmark
+	public CategoryObject fromCACCats() {
+		return CategoryObject.fromCACCats(_markedupCats.get(next()));
+	}
+}
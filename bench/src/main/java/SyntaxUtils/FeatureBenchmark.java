@@ -0,0 +1,74 @@
+package SyntaxUtils;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import LinguaView.syntax.CCGNode;
+
+/**
+ * Feature extraction and scoring of one state. The states are the final
+ * beams of the sentences of a bucket, taken in turn.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class FeatureBenchmark {
+	@Param({ "short", "medium", "long" })
+	public String bucket;
+
+	private PerceptronClassifier _classifier;
+	// the i-th state is the stateIndex[i]-th one of the beam of charts[i]
+	private List<CCGChart> _charts = new ArrayList<CCGChart>();
+	private List<Integer> _stateIndex = new ArrayList<Integer>();
+	private List<FeatureSet> _features = new ArrayList<FeatureSet>();
+	private int _next = 0;
+
+	@Setup
+	public void setup() throws IOException {
+		BenchFixtures fixtures = BenchFixtures.get();
+		_classifier = fixtures.classifier();
+		for (CCGNode tree : fixtures.trees(bucket)) {
+			CCGChart chart = fixtures.newChart(tree, BenchFixtures.TRAINING_BEAM);
+			chart.parse(false);
+			for (int i = 0; i < chart.numOfStates(); ++i) {
+				_charts.add(chart);
+				_stateIndex.add(i);
+				_features.add(chart.getFeatures(i));
+			}
+		}
+	}
+
+	private int next() {
+		int i = _next;
+		_next = (_next + 1) % _charts.size();
+		return i;
+	}
+
+	@Benchmark
+	public FeatureSet getFeatures() {
+		int i = next();
+		return _charts.get(i).getFeatures(_stateIndex.get(i));
+	}
+
+	@Benchmark
+	public double score() {
+		return _classifier.score(_features.get(next()));
+	}
+}
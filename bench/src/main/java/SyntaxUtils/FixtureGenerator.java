@@ -0,0 +1,138 @@
+package SyntaxUtils;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.PrintWriter;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+/**
+ * Generate the synthetic treebanks of the benchmarks from a toy English
+ * grammar, in CCGbank AUTO format. java.util.Random is seeded, so the
+ * fixtures are the same on every JVM; they are checked in under
+ * src/main/resources/fixtures and only need to be generated again when
+ * this grammar changes.
+ */
+public class FixtureGenerator {
+	/** the buckets of sentence length, from MIN_LENGTH[i] to MAX_LENGTH[i] words */
+	static final String[] BUCKETS = { "short", "medium", "long" };
+	static final int[] MIN_LENGTH = { 1, 11, 21 };
+	static final int[] MAX_LENGTH = { 10, 20, 40 };
+	static final int SENTENCES_PER_BUCKET = 50;
+
+	private static final String[] DET = { "the", "a", "every", "some", "this" };
+	private static final String[] N = { "dog", "cat", "man", "woman", "park", "telescope", "report",
+			"market", "city", "company", "price", "share", "year", "investor" };
+	private static final String[] ADJ = { "big", "small", "old", "new", "red", "quick", "strong", "local" };
+	private static final String[] V_T = { "sees", "likes", "buys", "sells", "watches", "reports", "owns" };
+	private static final String[] V_I = { "sleeps", "runs", "falls", "rises", "waits" };
+	private static final String[] P = { "in", "with", "on", "near", "for", "from" };
+	private static final String[] ADV = { "quickly", "often", "never", "rarely" };
+	private static final int MAX_DEPTH = 5;
+
+	private Random _random;
+	private int _length;
+
+	public FixtureGenerator(long seed) {
+		_random = new Random(seed);
+	}
+
+	private String choice(String[] words) {
+		return words[_random.nextInt(words.length)];
+	}
+
+	private String leaf(String cat, String pos, String word) {
+		++_length;
+		return "(<L " + cat + " " + pos + " " + pos + " " + word + " " + cat + ">)";
+	}
+
+	private static String tree(String cat, int head, String... kids) {
+		StringBuffer sb = new StringBuffer("(<T " + cat + " " + head + " " + kids.length + ">");
+		for (String kid : kids)
+			sb.append(" " + kid);
+		sb.append(" )");
+		return sb.toString();
+	}
+
+	private String nbar(int d) {
+		if (_random.nextDouble() < 0.3 && d < MAX_DEPTH)
+			return tree("N", 1, leaf("N/N", "JJ", choice(ADJ)), nbar(d + 1));
+		return leaf("N", "NN", choice(N));
+	}
+
+	private String np(int d) {
+		String base;
+		if (_random.nextDouble() < 0.2 || d > MAX_DEPTH)
+			base = tree("NP", 0, leaf("N", "NNS", choice(N) + "s"));
+		else
+			base = tree("NP", 1, leaf("NP[nb]/N", "DT", choice(DET)), nbar(d + 1));
+		if (_random.nextDouble() < 0.3 && d < MAX_DEPTH)
+			return tree("NP", 0, base, tree("NP\\NP", 0, leaf("(NP\\NP)/NP", "IN", choice(P)), np(d + 1)));
+		return base;
+	}
+
+	private String vp(int d) {
+		String v;
+		if (_random.nextDouble() < 0.5)
+			v = tree("S[dcl]\\NP", 0, leaf("(S[dcl]\\NP)/NP", "VBZ", choice(V_T)), np(d + 1));
+		else
+			v = leaf("S[dcl]\\NP", "VBZ", choice(V_I));
+		if (_random.nextDouble() < 0.25 && d < MAX_DEPTH)
+			v = tree("S[dcl]\\NP", 1, leaf("(S\\NP)/(S\\NP)", "RB", choice(ADV)), v);
+		if (_random.nextDouble() < 0.3 && d < MAX_DEPTH)
+			v = tree("S[dcl]\\NP", 0, v, tree("(S\\NP)\\(S\\NP)", 0,
+					leaf("((S\\NP)\\(S\\NP))/NP", "IN", choice(P)), np(d + 1)));
+		return v;
+	}
+
+	/**
+	 * @return the next sentence, its length is in length()
+	 */
+	public String sentence() {
+		_length = 0;
+		return tree("S[dcl]", 1, np(0), vp(0));
+	}
+
+	public int length() {
+		return _length;
+	}
+
+	/**
+	 * Generate SENTENCES_PER_BUCKET sentences of every bucket into dir.
+	 */
+	public static void main(String args[]) throws IOException {
+		File dir = new File(args.length > 0 ? args[0] : "src/main/resources/fixtures");
+		long seed = args.length > 1 ? Long.parseLong(args[1]) : 7;
+		FixtureGenerator gen = new FixtureGenerator(seed);
+		List<List<String>> buckets = new ArrayList<List<String>>();
+		for (int b = 0; b < BUCKETS.length; ++b)
+			buckets.add(new ArrayList<String>());
+		int full = 0;
+		while (full < BUCKETS.length) {
+			String s = gen.sentence();
+			for (int b = 0; b < BUCKETS.length; ++b) {
+				List<String> bucket = buckets.get(b);
+				if (gen.length() < MIN_LENGTH[b] || gen.length() > MAX_LENGTH[b]
+						|| bucket.size() >= SENTENCES_PER_BUCKET)
+					continue;
+				bucket.add(s);
+				if (bucket.size() == SENTENCES_PER_BUCKET)
+					++full;
+			}
+		}
+		dir.mkdirs();
+		for (int b = 0; b < BUCKETS.length; ++b) {
+			PrintWriter pw = new PrintWriter(new OutputStreamWriter(
+					new FileOutputStream(new File(dir, BUCKETS[b] + ".auto")), "UTF-8"));
+			List<String> bucket = buckets.get(b);
+			for (int i = 0; i < bucket.size(); ++i) {
+				pw.println("ID=synthetic." + BUCKETS[b] + "." + i + " PARSER=GOLD NUMPARSE=1");
+				pw.println(bucket.get(i));
+			}
+			pw.close();
+		}
+	}
+}
@@ -0,0 +1,56 @@
+package SyntaxUtils;
+
+import java.io.IOException;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import LinguaView.syntax.CCGNode;
+
+/**
+ * CCGChart.parse of one sentence of a length bucket, the sentences of the
+ * bucket are taken in turn.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class ParseBenchmark {
+	@Param({ "short", "medium", "long" })
+	public String bucket;
+
+	@Param({ "16" })
+	public int beam;
+
+	private BenchFixtures _fixtures;
+	private List<CCGNode> _trees;
+	private int _next = 0;
+
+	@Setup
+	public void setup() throws IOException {
+		_fixtures = BenchFixtures.get();
+		_trees = _fixtures.trees(bucket);
+	}
+
+	@Benchmark
+	public CCGParseResult parse() {
+		CCGNode tree = _trees.get(_next);
+		_next = (_next + 1) % _trees.size();
+		CCGChart chart = _fixtures.newChart(tree, beam);
+		chart.parse(false);
+		return chart.getResult();
+	}
+}
@@ -0,0 +1,127 @@
+package SyntaxUtils;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import LinguaView.syntax.CCGInternalNode;
+import LinguaView.syntax.CCGNode;
+import LinguaView.syntax.CCGTerminalNode;
+import LinguaView.syntax.CategoryObject;
+
+/**
+ * Rule application on the binary steps of the gold derivations of a bucket,
+ * rebuilt bottom-up as the parser builds them, taken in turn.
+ * tryAllRules is memoized, so it measures the lookup of the memo, and
+ * tryAllRulesUncached the combinators themselves.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class RuleBenchmark {
+	@Param({ "short", "medium", "long" })
+	public String bucket;
+
+	private CCGGrammar _grammar;
+	private List<CCGBinaryRule> _rules = new ArrayList<CCGBinaryRule>();
+	private List<CCGNode> _lefts = new ArrayList<CCGNode>();
+	private List<CCGNode> _rights = new ArrayList<CCGNode>();
+	private int _next = 0;
+
+	@Setup
+	public void setup() throws IOException {
+		BenchFixtures fixtures = BenchFixtures.get();
+		_grammar = fixtures.grammar();
+		for (CCGNode tree : fixtures.trees(bucket))
+			rebuild(tree);
+		if (_rules.isEmpty())
+			throw new IllegalStateException("no derivation of " + bucket + " could be rebuilt");
+	}
+
+	/**
+	 * Build the node of gold as the parser does, and record its binary steps.
+	 * @return the node, or null if a step is not in the grammar
+	 */
+	private CCGNode rebuild(CCGNode gold) {
+		if (gold.isTerminal()) {
+			CCGTerminalNode tn = (CCGTerminalNode) gold;
+			return new CCGTerminalNode(tn.word(), tn.modPOS(), tn.category().toMarkedupString(), null, tn.index());
+		}
+		CCGNode[] daughters = ((CCGInternalNode) gold).daughters();
+		if (daughters.length == 1) {
+			CCGNode child = rebuild(daughters[0]);
+			if (child == null)
+				return null;
+			CCGUnaryRule[] candidates = _grammar.lookup(child.categoryId());
+			if (candidates == null)
+				return null;
+			for (CCGUnaryRule rule : candidates) {
+				CCGNode cn = CCGInternalNode.generateNewNode(rule, child);
+				if (cn != null && cn.categoryToString().equals(gold.categoryToString()))
+					return cn;
+			}
+			return null;
+		}
+		CCGNode left = rebuild(daughters[0]);
+		CCGNode right = rebuild(daughters[1]);
+		if (left == null || right == null)
+			return null;
+		CCGBinaryRule[] candidates = _grammar.lookup(left.categoryId(), right.categoryId());
+		if (candidates == null)
+			return null;
+		for (CCGBinaryRule rule : candidates) {
+			CCGNode cn = CCGInternalNode.generateNewNode(rule, left, right);
+			if (cn != null && cn.categoryToString().equals(gold.categoryToString())) {
+				_rules.add(rule);
+				_lefts.add(left);
+				_rights.add(right);
+				return cn;
+			}
+		}
+		return null;
+	}
+
+	private int next() {
+		int i = _next;
+		_next = (_next + 1) % _rules.size();
+		return i;
+	}
+
+	@Benchmark
+	public CCGInternalNode generateNewNode() {
+		int i = next();
+		return CCGInternalNode.generateNewNode(_rules.get(i), _lefts.get(i), _rights.get(i));
+	}
+
+	@Benchmark
+	public CCGBinaryRule tryAllRules() {
+		int i = next();
+		CategoryObject left = _lefts.get(i).category();
+		CategoryObject right = _rights.get(i).category();
+		return CCGBinaryRule.tryAllRules(left, right);
+	}
+
+	@Benchmark
+	public CCGBinaryRule tryAllRulesUncached() {
+		int i = next();
+		CategoryObject left = _lefts.get(i).category();
+		CategoryObject right = _rights.get(i).category();
+		return CCGBinaryRule.tryAllRulesUncached(left, right);
+	}
+}
@@ -0,0 +1,238 @@
+package LinguaView.syntax;
+
+import java.io.BufferedReader;
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.nio.charset.CharsetDecoder;
+import java.nio.charset.CodingErrorAction;
+import java.nio.file.StandardOpenOption;
+import java.util.Iterator;
+import java.util.LinkedList;
+import java.util.NoSuchElementException;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletionService;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorCompletionService;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+
+/**
+ * Stream the trees of a CCGbank .auto file, e.g.
+ * <pre>
+ * CCGBankReader reader = new CCGBankReader(file, "UTF-8", 4, true);
+ * try {
+ *     while (reader.hasNext())
+ *         use(reader.next());
+ * } finally {
+ *     reader.close();
+ * }
+ * </pre>
+ * The file is read from a file channel with a large buffer, and the trees
+ * are built from the lines by a pool of worker threads. Only a few lines
+ * per thread are read ahead of the caller, so the treebank is never in
+ * memory as a whole. The trees are returned in the file order if ordered,
+ * otherwise as soon as they are built.
+ * Errors are thrown as IllegalStateException, and close the reader.
+ * With more than one thread, new categories get their IDs in
+ * CategoryObject.CATEGORY_INDEX in no fixed order.
+ */
+public class CCGBankReader implements Iterator<CCGNode>, Closeable {
+	private static final int BUFFER_SIZE = 1 << 20;
+	private static final int PENDING_PER_THREAD = 4;
+
+	private File _file;
+	private BufferedReader _reader;
+	// null if the trees are built in the calling thread
+	private ExecutorService _pool = null;
+	// null if the trees are returned in the file order
+	private CompletionService<CCGNode> _completion = null;
+	private LinkedList<Future<CCGNode>> _pending = new LinkedList<Future<CCGNode>>();
+	private int _numOfPending = 0;
+	private int _maxPending;
+	private boolean _eof = false;
+	// the ID line of the next tree
+	private String _source = null;
+	private CCGNode _next = null;
+
+	/**
+	 * Read the trees in the calling thread.
+	 */
+	public CCGBankReader(File file, String encoding) {
+		this(file, encoding, 1, true);
+	}
+
+	/**
+	 * @param file
+	 * @param encoding
+	 * @param numThreads threads building the trees, 1 to build them in the calling thread
+	 * @param ordered return the trees in the file order
+	 */
+	public CCGBankReader(File file, String encoding, int numThreads, boolean ordered) {
+		_file = file;
+		// replace malformed input, just as an InputStreamReader does
+		CharsetDecoder decoder = Charset.forName(encoding).newDecoder()
+				.onMalformedInput(CodingErrorAction.REPLACE)
+				.onUnmappableCharacter(CodingErrorAction.REPLACE);
+		try {
+			FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ);
+			_reader = new BufferedReader(Channels.newReader(channel, decoder, BUFFER_SIZE), BUFFER_SIZE);
+		} catch (IOException e) {
+			throw new IllegalStateException("fail to open " + file, e);
+		}
+		if (numThreads > 1) {
+			_pool = Executors.newFixedThreadPool(numThreads, new ThreadFactory() {
+				@Override
+				public Thread newThread(Runnable r) {
+					// an unclosed reader must not keep the JVM alive
+					Thread t = new Thread(r, "CCGBankReader");
+					t.setDaemon(true);
+					return t;
+				}
+			});
+			if (!ordered)
+				_completion = new ExecutorCompletionService<CCGNode>(_pool);
+		}
+		_maxPending = Math.max(numThreads, 1) * PENDING_PER_THREAD;
+	}
+
+	private static class BuildTask implements Callable<CCGNode> {
+		private String _line;
+		private String _source;
+
+		private BuildTask(String line, String source) {
+			_line = line;
+			_source = source;
+		}
+
+		@Override
+		public CCGNode call() {
+			return build(_line, _source);
+		}
+	}
+
+	private static CCGNode build(String line, String source) {
+		CCGNode c = CCGNode.getCCGNodeFromString(line, source);
+		c.source = source;
+		return c;
+	}
+
+	@Override
+	public boolean hasNext() {
+		if (_next == null)
+			_next = fetch();
+		return _next != null;
+	}
+
+	@Override
+	public CCGNode next() {
+		if (!hasNext())
+			throw new NoSuchElementException();
+		CCGNode c = _next;
+		_next = null;
+		return c;
+	}
+
+	@Override
+	public void remove() {
+		throw new UnsupportedOperationException();
+	}
+
+	// the next tree, or null at the end
+	private CCGNode fetch() {
+		if (_reader == null)
+			return null;
+		try {
+			if (_pool == null) {
+				String[] tree = readTree();
+				if (tree == null) {
+					close();
+					return null;
+				}
+				try {
+					return build(tree[0], tree[1]);
+				} catch (RuntimeException e) {
+					close();
+					throw new IllegalStateException("fail to build tree "
+							+ (tree[1] == null ? tree[0] : tree[1]) + " of " + _file, e);
+				}
+			}
+			// read ahead until the window is full, then wait for a tree
+			while (!_eof && _numOfPending < _maxPending) {
+				String[] tree = readTree();
+				if (tree == null) {
+					_eof = true;
+					break;
+				}
+				BuildTask task = new BuildTask(tree[0], tree[1]);
+				if (_completion != null)
+					_completion.submit(task);
+				else
+					_pending.add(_pool.submit(task));
+				++_numOfPending;
+			}
+			if (_numOfPending == 0) {
+				close();
+				return null;
+			}
+			Future<CCGNode> f = _completion != null ? _completion.take() : _pending.removeFirst();
+			--_numOfPending;
+			return f.get();
+		} catch (IOException e) {
+			close();
+			throw new IllegalStateException("fail to read " + _file, e);
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			close();
+			throw new IllegalStateException("interrupted while reading " + _file, e);
+		} catch (ExecutionException e) {
+			close();
+			throw new IllegalStateException("fail to build a tree of " + _file, e.getCause());
+		}
+	}
+
+	// the next line of a tree and the ID line before it, or null at the end
+	private String[] readTree() throws IOException {
+		String s;
+		while ((s = _reader.readLine()) != null) {
+			s = s.trim();
+			if (s.length() == 0)
+				continue;
+			if (s.charAt(0) != '(') {
+				_source = s;
+				continue;
+			}
+			String[] tree = { s, _source };
+			_source = null;
+			return tree;
+		}
+		return null;
+	}
+
+	/**
+	 * Stop the workers and close the file, the trees not returned yet are
+	 * dropped.
+	 */
+	@Override
+	public void close() {
+		if (_pool != null) {
+			_pool.shutdownNow();
+			_pool = null;
+		}
+		_pending.clear();
+		_numOfPending = 0;
+		if (_reader == null)
+			return;
+		try {
+			_reader.close();
+		} catch (IOException e) {
+			e.printStackTrace();
+		}
+		_reader = null;
+	}
+}
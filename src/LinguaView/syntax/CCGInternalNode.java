@@ -52,7 +52,6 @@ public class CCGInternalNode extends CCGNode {
 	private CCGInternalNode() {
 	}
 
-	@SuppressWarnings("unchecked")
 	public static CCGInternalNode generateNewNode(CCGBinaryRule rule,
 			CCGNode left, CCGNode right) {
 		CCGInternalNode result = new CCGInternalNode();
@@ -81,22 +80,10 @@ public class CCGInternalNode extends CCGNode {
 		result.source = left.source;
 
 		result.unfilledSlots = new HashMap<CoindexedObject, Set<Pair<Integer, Integer>>>();
-		result.slots = new Set[result.end - result.start + 1][];
+		// the slots of the children are shared, not copied
+		result.slots = SlotTable.concat(left.slots, right.slots);
 		result.newlyFilledSlots = new HashMap<Pair<Integer, Integer>, Set<Integer>>();
 
-		for (int i = 0; i < left.slots.length; ++i){
-			result.slots[i] = new Set[left.slots[i].length]; 
-			for (int j = 0; j<left.slots[i].length; ++j)
-				if (left.slots[i][j] != null)
-					result.slots[i][j] = new HashSet<Integer>(left.slots[i][j]);
-		}
-		for (int i = 0; i < right.slots.length; ++i){
-			result.slots[i + left.slots.length] = new Set[right.slots[i].length]; 
-			for (int j = 0; j< right.slots[i].length; ++j)
-				if (right.slots[i][j] != null)
-					result.slots[i + left.slots.length][j] = new HashSet<Integer>(right.slots[i][j]);
-		}
-
 		// transfer some of unfilled Slots to newlyFilledSlot
 		// XXX we assume a slot would be filled twice
 		for (Entry<CoindexedObject, CoindexedObject> e : indices.entrySet()) {
@@ -118,7 +105,7 @@ public class CCGInternalNode extends CCGNode {
 					Set<Integer> heads = pHead.head();
 					for (Pair<Integer, Integer> p : toFill) {
 						result.newlyFilledSlots.put(p, heads);
-						result.slots[p.getFirst() - result.start][p.getSecond()] = heads;
+						result.slots.fill(p.getFirst() - result.start, p.getSecond(), heads);
 					}
 				}
 			} else {
@@ -133,7 +120,6 @@ public class CCGInternalNode extends CCGNode {
 		return result;
 	}
 
-	@SuppressWarnings("unchecked")
 	public static CCGInternalNode generateNewNode(CCGUnaryRule rule,
 			CCGNode child) {
 		CCGInternalNode result = new CCGInternalNode();
@@ -155,16 +141,9 @@ public class CCGInternalNode extends CCGNode {
 		result.source = child.source;
 
 		result.unfilledSlots = new HashMap<CoindexedObject, Set<Pair<Integer, Integer>>>();
-		result.slots = new Set[result.end - result.start + 1][];
+		result.slots = SlotTable.extend(child.slots);
 		result.newlyFilledSlots = new HashMap<Pair<Integer, Integer>, Set<Integer>>();
 
-		for (int i = 0; i < child.slots.length; ++i){
-			result.slots[i] = new Set[child.slots[i].length]; 
-			for (int j = 0; j<child.slots[i].length; ++j)
-				if (child.slots[i][j] != null)
-					result.slots[i][j] = new HashSet<Integer>(child.slots[i][j]);
-		}
-
 		// transfer some of unfilled Slots to newlyFilledSlot
 		// XXX we assume a slot would be filled twice
 		for (Entry<CoindexedObject, CoindexedObject> e : indices.entrySet()) {
@@ -1,10 +1,7 @@
 package LinguaView.syntax;
 
-import java.io.BufferedReader;
 import java.io.File;
-import java.io.FileInputStream;
 import java.io.IOException;
-import java.io.InputStreamReader;
 import java.io.PrintWriter;
 import java.util.ArrayList;
 import java.util.Collections;
@@ -41,12 +38,30 @@ public abstract class CCGNode {
 	protected int start;
 	protected int end;
 	
+	// atoms of the words under this node, cached by the feature extractor
+	private volatile int[] featureAtoms = null;
+	
 //	List<CCGTerminalNode> leaves;
 	
 	public int start(){
 		return start;
 	}
 	
+	/**
+	 * @return the atoms set by featureAtoms(int[]), or null
+	 */
+	public int[] featureAtoms(){
+		return featureAtoms;
+	}
+	
+	/**
+	 * Cache the atoms of the words under this node. They only depend on the
+	 * words, which never change, so the array must not be changed later.
+	 */
+	public void featureAtoms(int[] atoms){
+		featureAtoms = atoms;
+	}
+	
 	public int end(){
 		return end;
 	}
@@ -65,7 +80,7 @@ public abstract class CCGNode {
 	// coindexedObject in new Category, and map it to the unfilled slots.
 	// <co-obj-in-this, pair<index-in-sent, index of slot>>
 	Map<CoindexedObject, Set<Pair<Integer, Integer>>> unfilledSlots;
-	public Set<Integer>[][] slots; // all slots. say slots[1][2] = {2, 3}, that means
+	SlotTable slots; // all slots. say slots.get(1, 2) = {2, 3}, that means
 							// the second slot of second node is filled with {2,
 							// 3}, remember to get the start index
 
@@ -102,8 +117,8 @@ public abstract class CCGNode {
 	private static CCGNode getCCGNodeFromParenthesesBlockCCG(
 			ParenthesesBlockCCG p, int terminals, String source) {
 		if (p.subBlocks.isEmpty())
-			return new CCGTerminalNode(p.label.trim(), terminals + 1);
-		CCGInternalNode intNode = new CCGInternalNode(p.label);
+			return new CCGTerminalNode(p.label(), terminals + 1);
+		CCGInternalNode intNode = new CCGInternalNode(p.label());
 		intNode.start = terminals + 1;
 		int i = 0;
 		int end = terminals;
@@ -129,7 +144,6 @@ public abstract class CCGNode {
 		return intNode;
 	}
 	
-	@SuppressWarnings("resource")
 	@Deprecated
 	/**
 	 * Use CCGBankReader instead.
@@ -139,60 +153,16 @@ public abstract class CCGNode {
 	 */
 	public static ArrayList<CCGNode> readCCGFile(File inputFile, String encoding)  {
 		ArrayList<CCGNode> result = new ArrayList<CCGNode>();
-		BufferedReader br = null;
-//		Scanner scan = null;
-		String cache = null;
-		int count = 0;
+		CCGBankReader reader = new CCGBankReader(inputFile, encoding);
 		try {
-			br = new BufferedReader(new InputStreamReader(new FileInputStream(inputFile), encoding));
-			String s = br.readLine();
-			while (s != null){
-				s = s.trim();
-				if (s.length() == 0){
-					s = br.readLine();
-					continue;
-				}
-				if (s.charAt(0) != '(') {
-					cache = s;
-					s = br.readLine();
-					continue;
-				}
-				CCGNode c = getCCGNodeFromString(s, cache);
-				c.source = cache;
-				cache = null;
-				result.add(c);
-				
-				count++;
-				if (count % 100 == 0)
+			while (reader.hasNext()) {
+				result.add(reader.next());
+				if (result.size() % 100 == 0)
 					System.out.print('.');
-				
-				s = br.readLine();
 			}
-//			scan = new Scanner(inputFile, encoding);
-		} catch (IOException e) {
-			e.printStackTrace();
-			System.exit(-1);
+		} finally {
+			reader.close();
 		}
-
-//		while (scan.hasNextLine()) {
-//			String line = scan.nextLine();
-//			if (line.charAt(0) != '(') {
-//				cache = line;
-//				continue;
-//			}
-//			try{
-//				CCGNode c = getCCGNodeFromString(line, cache);
-//				c.source = cache;
-//				cache = null;
-//				result.add(c);
-//				count++;
-//				if (count % 100 == 0)
-//					System.out.print('.');
-//			}catch (Exception e){
-//				System.err.println(line);
-//				e.printStackTrace();
-//			}
-//		}
 		return result;
 	}
 
@@ -205,7 +175,14 @@ public abstract class CCGNode {
 	
 	
 	public String categoryToString() {
-		return cat.toString();
+		return cat.key();
+	}
+	
+	/**
+	 * @return ID of categoryToString() in CategoryObject.CATEGORY_INDEX
+	 */
+	public int categoryId() {
+		return cat.keyId();
 	}
 	public String categoryWithNoFeature(){
 		return cat.toStringWithoutFeature();
@@ -540,13 +517,11 @@ public abstract class CCGNode {
 		//TODO
 		List<Integer> hasArgColumns = new ArrayList<Integer>();
 		if (cn.slots == null)
-			cn.slots = new Set[0][0];
+			cn.slots = SlotTable.of(new Set[0][0]);
 		
-		for(int i = 0; i < cn.slots.length; ++i){
-			if (cn.slots[i] == null)
-				continue;
-			for (int j=0; j<cn.slots[i].length; ++j){
-				if (cn.slots[i][j] != null && cn.slots[i][j].size() >0){
+		for(int i = 0; i < cn.slots.numOfRows(); ++i){
+			for (int j=0; j<cn.slots.width(i); ++j){
+				if (cn.slots.get(i, j) != null && cn.slots.get(i, j).size() >0){
 					hasArgColumns.add(i);
 					break;
 				}
@@ -611,8 +586,8 @@ public abstract class CCGNode {
 					//Bug is not fixed,so it is possible that simultaneously fill more than one slots of an predeicate??
 					List<Integer> ordOfSlots = new ArrayList<Integer>();
 					
-					for(int k = 0; k < cn.slots[pred].length; ++k)
-						if (cn.slots[pred][k] != null && cn.slots[pred][k].contains(i))
+					for(int k = 0; k < cn.slots.width(pred); ++k)
+						if (cn.slots.get(pred, k) != null && cn.slots.get(pred, k).contains(i))
 							ordOfSlots.add(k + 1);
 					if (ordOfSlots.size() ==0)
 						sb.append("\t_");
@@ -710,10 +685,28 @@ public abstract class CCGNode {
 		if (slots == null){
 			CCGParseResult pr = CCGChart.goldParse(this);
 			if (pr != null)
-				slots = pr.dependency;
+				slots = SlotTable.of(pr.dependency);
 		}
 	}
 	
+	/**
+	 * @return the dependency slots of the words under this node, or null
+	 */
+	public SlotTable slots(){
+		return slots;
+	}
+
+	/**
+	 * @return a copy of the dependency slots as the former public field
+	 * slots, say slotArray()[1][2] = {2, 3}; or null
+	 * @deprecated the slots are kept in a SlotTable shared with the
+	 * children, use slots() instead of copying them
+	 */
+	@Deprecated
+	public Set<Integer>[][] slotArray(){
+		return slots == null ? null : slots.toArray();
+	}
+	
 	public Set<Integer> collectNewInactiveNodes(){
 		if (isTerminal())
 			return Collections.<Integer>emptySet();
@@ -722,14 +715,7 @@ public abstract class CCGNode {
 			int index = p.getFirst();
 			if (nodes.contains(index))
 				continue;
-			boolean b = true;
-			for (int j = 0; j<slots[index - start].length; ++j){
-				if (slots[index - start][j] == null){
-					b = false;
-					break;
-				}
-			}
-			if (b)
+			if (slots.isFilled(index - start))
 				nodes.add(index);
 		}
 		return nodes;
@@ -766,7 +752,7 @@ public abstract class CCGNode {
 
 		sb.append("<table cellpadding=\"10\">\n");
 
-		for (int i = 0; i < slots.length; ++i) {
+		for (int i = 0; i < slots.numOfRows(); ++i) {
 			Object[] colors = {"<font color=\"firebrick\">", "</font>", "<font color=\"mediumblue\">", "</font>", "<font color=\"green\">", "</font>", "<font color=\"orchid\">", "</font>" ,"<font color=\"mediumblue\">", "</font>", "<font color=\"green\">", "</font>", "<font color=\"orchid\">", "</font>"};
 			sb.append("<tr>\n");
 			sb.append("<td>");
@@ -778,15 +764,15 @@ public abstract class CCGNode {
 			sb.append("<td>");
 			sb.append(String.format("<i>%s</i>\n", String.format(terms.get(i).category().toColoredString(), colors)));
 			sb.append("</td>\n");
-			for (int j = 0; j < slots[i].length; ++j) {
+			for (int j = 0; j < slots.width(i); ++j) {
 				sb.append("<td>");
-				if (slots[i][j] == null)
+				if (slots.get(i, j) == null)
 					sb.append(String.format(
 							"<font color=\"FF0000\"><b>%s</b></font>", "null"));
 				else {
 					sb.append(colors[(j%4)*2]);
 					List<String> heads = new ArrayList<String>();
-					for (int z : slots[i][j])
+					for (int z : slots.get(i, j))
 						heads.add(terms.get(z).word());
 					sb.append(heads.get(0));
 					for (int z = 1; z < heads.size(); ++z)
@@ -71,7 +71,6 @@ public class CCGTerminalNode extends CCGNode {
 	
 	// the following come from the lexicon
 	// if we need parString and source
-	@SuppressWarnings("unchecked")
 	public CCGTerminalNode(String word, String POS, String markup, String additionalInfro, int index){
 		this.word = word;
 		this.orig_POS = POS;
@@ -81,14 +80,14 @@ public class CCGTerminalNode extends CCGNode {
 		cat = CategoryObject.fromCACCats(markup);
 		index(index);
 		cat.head(index);
-		slots = new Set[1][cat._slots.length];
+		slots = SlotTable.unfilled(cat._slots.length);
 		
 		newlyFilledSlots = Collections.<Pair<Integer, Integer>, Set<Integer>>emptyMap();
 		unfilledSlots = new HashMap<CoindexedObject, Set<Pair<Integer, Integer>>>();
 		
 //		CategoryObject next = cat;
 //		int i= slots.length - 1;
-		for (int i = 0; i <slots[0].length ; ++i){
+		for (int i = 0; i <cat._slots.length ; ++i){
 			Pair<Integer, Integer> p = new Pair<Integer, Integer>(index, i);
 			CoindexedObject head = cat._slots[i]._headObj;
 //			CoindexedObject head = next._argument.headObj;
@@ -3,12 +3,15 @@ package LinguaView.syntax;
 import java.util.ArrayList;
 import java.util.HashMap;
 import java.util.HashSet;
+import java.util.IdentityHashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
 import java.util.Stack;
-import java.util.regex.Matcher;
-import java.util.regex.Pattern;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+import SyntaxUtils.StringIndexer;
 
 /**
  * There are two versions of methods to perform CCG Rule. The first type is when
@@ -23,6 +26,11 @@ import java.util.regex.Pattern;
  */
 public class CategoryObject { // extends CategoryObject{
 	static enum Direction { FORWARD, BACKWARD, BASIC };
+	/**
+	 * IDs of the categories by their string forms, shared by CCGNode and
+	 * SyntaxUtils.CCGGrammar.
+	 */
+	public static final StringIndexer CATEGORY_INDEX = new StringIndexer();
 	/**
 	 * _headObject contains the head of the cat, represented by the index in a
 	 * sentence, and a list of cats with equivalent heads. For Terminal CCG
@@ -147,6 +155,40 @@ public class CategoryObject { // extends CategoryObject{
 
 	public CoindexedObject _headObj = null;
 
+	/**
+	 * toString() and its ID in CATEGORY_INDEX, cached until this category or
+	 * one of its sub-categories is changed. So are the other forms built
+	 * from the strings only, on first use.
+	 */
+	private static class Key {
+		final String string;
+		final int id;
+		final long stamp; // VERSION when the key was built
+		// racy but idempotent, a thread may just build them again
+		String stripped = null; // toStringWithoutFeature()
+		int adjunct = 0; // adjunctForm(), 0 if not built yet
+
+		Key(String string, long stamp) {
+			this.string = string;
+			this.id = CATEGORY_INDEX.getIndex(string);
+			this.stamp = stamp;
+		}
+	}
+
+	private static final AtomicLong VERSION = new AtomicLong();
+	// VERSION when the string form of this category itself was changed
+	private long _version = 0;
+	private volatile Key _key = null;
+
+	/*
+	 * Parsed categories by their labels, for fromPlainCat, fromPredArgCat and
+	 * fromCACCats. A template is never handed out and never changed, every
+	 * call gets a copy of it.
+	 */
+	private static final ConcurrentHashMap<String, CategoryObject> PLAIN_TEMPLATES = new ConcurrentHashMap<String, CategoryObject>();
+	private static final ConcurrentHashMap<String, CategoryObject> PRED_ARG_TEMPLATES = new ConcurrentHashMap<String, CategoryObject>();
+	private static final ConcurrentHashMap<String, CategoryObject> CAC_TEMPLATES = new ConcurrentHashMap<String, CategoryObject>();
+
 	protected CategoryObject(CategoryObject res, Direction dir, CategoryObject arg) {
 		if (dir == Direction.BASIC)
 			throw new IllegalArgumentException("Combine with direction basic!");
@@ -160,7 +202,72 @@ public class CategoryObject { // extends CategoryObject{
 
 	public CategoryObject() { ; }
 
+	private static CategoryObject template(Map<String, CategoryObject> templates, String label,
+			CategoryObject cat) {
+		// the key of the template stays valid, and is shared by its copies
+		cat.key();
+		templates.put(label, cat);
+		return cat;
+	}
+
+	/**
+	 * A deep copy of a category just parsed. The coindexed objects are
+	 * copied with their heads, so the copy is coindexed as this category is,
+	 * and shares nothing with it.
+	 */
+	CategoryObject copy() {
+		IdentityHashMap<CategoryObject, CategoryObject> cats = new IdentityHashMap<CategoryObject, CategoryObject>();
+		IdentityHashMap<CoindexedObject, CoindexedObject> heads = new IdentityHashMap<CoindexedObject, CoindexedObject>();
+		CategoryObject cat = copy(cats, heads);
+		if (_slots != null) {
+			cat._slots = new CategoryObject[_slots.length];
+			for (int i = 0; i < _slots.length; ++i)
+				cat._slots[i] = _slots[i] == null ? null : cats.get(_slots[i]);
+		}
+		cat._key = _key;
+		return cat;
+	}
+
+	private CategoryObject copy(IdentityHashMap<CategoryObject, CategoryObject> cats,
+			IdentityHashMap<CoindexedObject, CoindexedObject> heads) {
+		CategoryObject cat = new CategoryObject();
+		cat._category = _category;
+		cat._feature = _feature;
+		cat._interpret = _interpret;
+		cat._dir = _dir;
+		cat._isConjunctConstituent = _isConjunctConstituent;
+		cat._depth = _depth;
+		cat._longRange = _longRange;
+		if (_dir != Direction.BASIC) {
+			cat._result = _result.copy(cats, heads);
+			cat._argument = _argument.copy(cats, heads);
+		}
+		// coindexed after the sub-categories, as the parsers do
+		if (_headObj != null) {
+			CoindexedObject head = heads.get(_headObj);
+			if (head == null) {
+				head = new CoindexedObject();
+				head.head.addAll(_headObj.head);
+				heads.put(_headObj, head);
+			}
+			head.add(cat);
+		}
+		cats.put(this, cat);
+		return cat;
+	}
+
+	/**
+	 * Parse a category without coindexation, e.g. NP[conj] or (S\NP)/NP.
+	 * The parsed categories are cached by label.
+	 */
 	public static CategoryObject fromPlainCat(String label) {
+		CategoryObject template = PLAIN_TEMPLATES.get(label);
+		if (template == null)
+			template = template(PLAIN_TEMPLATES, label, parsePlainCat(label));
+		return template.copy();
+	}
+
+	private static CategoryObject parsePlainCat(String label) {
 		boolean isConjunction = false;
 		CategoryObject cat = null;
 		
@@ -171,6 +278,7 @@ public class CategoryObject { // extends CategoryObject{
 //		try {
 			cat = fromPredArgCat(label, null);
 			cat._isConjunctConstituent = isConjunction;
+			cat.touch();
 //		} catch (Exception e) {
 //			e.printStackTrace();
 //			throw new IllegalArgumentException("Wrong Cat: " + label);
@@ -180,11 +288,19 @@ public class CategoryObject { // extends CategoryObject{
 	
 	/**
 	 * move this to terminal node
+	 * The parsed categories are cached by label.
 	 * 
 	 * @param label
 	 * @param isPredArgCat
 	 */
 	public static CategoryObject fromPredArgCat(String label) {
+		CategoryObject template = PRED_ARG_TEMPLATES.get(label);
+		if (template == null)
+			template = template(PRED_ARG_TEMPLATES, label, parsePredArgCat(label));
+		return template.copy();
+	}
+
+	private static CategoryObject parsePredArgCat(String label) {
 		boolean isConjunction = false;
 		CategoryObject cat = null;
 //		CoindexedObject[] slots = null;
@@ -200,6 +316,7 @@ public class CategoryObject { // extends CategoryObject{
 			cat.coindexWith(indexCache.get(0));
 			cat._slots = new CategoryObject[cat.depth()];
 			cat._isConjunctConstituent = isConjunction;
+			cat.touch();
 			CategoryObject next = cat;
 			for (int i = cat._slots.length - 1; i >= 0; --i) {
 				cat._slots[i] = next._argument;
@@ -221,10 +338,12 @@ public class CategoryObject { // extends CategoryObject{
 
 		CategoryObject cat = new CategoryObject();
 		
-		label = label.replace(":B", "");
-		label = label.replace(":U", "");
-		label = label.replace("(", "{");
-		label = label.replace(")", "}");
+		if (label.indexOf(':') >= 0) {
+			label = label.replace(":B", "");
+			label = label.replace(":U", "");
+		}
+		label = label.replace('(', '{');
+		label = label.replace(')', '}');
 		// k points at '_' or the same with l, l points at '\\' or '/'
 		if (label.contains("/") || label.contains("\\")) { //complex category
 			int k = -1;
@@ -323,26 +442,74 @@ public class CategoryObject { // extends CategoryObject{
 			// category = label;
 			cat._depth = 0;
 
-			Pattern p = Pattern.compile("\\[\\w+\\]");
-			Matcher m1 = p.matcher(label);
-			if (m1.find()) {
-				String feat = m1.group();
-				cat._feature = (feat.substring(1, feat.length() - 1));
-				// feature = feature.substring(1, feature.length() - 1);
-				cat._category = m1.replaceAll("");
-			} else
-				cat._category = label;
-			cat._dir = Direction.BASIC;
+			parseAtomic(cat, label);
 		}
 		return cat;
 	}
 	
+	/*
+	 * Set the atomic category and the feature of cat from label, e.g. S[dcl].
+	 * The first feature like [dcl] is the feature, all of them are taken out
+	 * of the category.
+	 */
+	private static void parseAtomic(CategoryObject cat, String label) {
+		String feature = null;
+		StringBuffer sb = null;
+		int start = 0;
+		for (int i = label.indexOf('['); i >= 0; i = label.indexOf('[', i + 1)) {
+			int end = featureEnd(label, i);
+			if (end < 0)
+				continue;
+			if (feature == null) {
+				feature = label.substring(i + 1, end - 1);
+				sb = new StringBuffer(label.length());
+			}
+			sb.append(label, start, i);
+			start = end;
+			i = end - 1;
+		}
+		if (feature == null)
+			cat._category = label;
+		else {
+			sb.append(label, start, label.length());
+			cat._feature = feature;
+			cat._category = sb.toString();
+		}
+		cat._dir = Direction.BASIC;
+	}
+
+	// the end of the feature like [dcl] at i of s, or -1 if there is none
+	private static int featureEnd(String s, int i) {
+		int j = i + 1;
+		while (j < s.length() && isWordChar(s.charAt(j)))
+			++j;
+		if (j == i + 1 || j == s.length() || s.charAt(j) != ']')
+			return -1;
+		return j + 1;
+	}
+
+	// the same as \w in regular expressions
+	private static boolean isWordChar(char c) {
+		return (c >= 'a' && c <= 'z') || (c >= 'A' && c <= 'Z') || (c >= '0' && c <= '9') || c == '_';
+	}
+
 	//it looks like 
 	//  1 ((S[X]{Y}\NP{Z}){Y}/(S[X]{Y}\NP{Z}){Y}<1>){_}
+	// the parsed categories are cached by label
 	public static CategoryObject fromCACCats(String label){
+		CategoryObject template = CAC_TEMPLATES.get(label);
+		if (template == null)
+			template = template(CAC_TEMPLATES, label, parseCACCats(label));
+		return template.copy();
+	}
+
+	private static CategoryObject parseCACCats(String label){
 		CategoryObject cat = null;
 //		try {
-			label = label.replaceAll("#.*$", "").trim();
+			int comment = label.indexOf('#');
+			if (comment >= 0)
+				label = label.substring(0, comment);
+			label = label.trim();
 			String ss[] = label.split(" ", 2);
 			int slotLength = Integer.parseInt(ss[0]);
 			CategoryObject[] slotIndices = new CategoryObject[slotLength];
@@ -432,16 +599,7 @@ public class CategoryObject { // extends CategoryObject{
 			
 		} else{ // it is an atomic category
 			cat._depth = 0;
-			Pattern p = Pattern.compile("\\[\\w+\\]");
-			Matcher m1 = p.matcher(label);
-			if (m1.find()) {
-				String feat = m1.group();
-				cat._feature = (feat.substring(1, feat.length() - 1));
-				// feature = feature.substring(1, feature.length() - 1);
-				cat._category = m1.replaceAll("");
-			} else
-				cat._category = label;
-			cat._dir = Direction.BASIC;
+			parseAtomic(cat, label);
 		}
 
 		CoindexedObject head = indices.get(charIndex);
@@ -595,26 +753,77 @@ public class CategoryObject { // extends CategoryObject{
 		return obj;
 	}
 
+	/**
+	 * Must be called whenever the feature, the atomic category or the
+	 * conjunct mark is changed, so that key() is rebuilt.
+	 */
+	void touch() {
+		_version = VERSION.incrementAndGet();
+	}
+
+	// the latest change in this category and its sub-categories
+	private long latestChange() {
+		if (_dir == Direction.BASIC)
+			return _version;
+		return Math.max(_version, Math.max(_result.latestChange(), _argument.latestChange()));
+	}
+
+	private Key cachedKey() {
+		Key key = _key;
+		if (key != null && latestChange() <= key.stamp)
+			return key;
+		// stamp first, a change made while building invalidates the key
+		long stamp = VERSION.get();
+		key = new Key(toString(), stamp);
+		_key = key;
+		return key;
+	}
+
+	/**
+	 * @return the same as toString(), but only rebuilt after a change
+	 */
+	public String key() {
+		return cachedKey().string;
+	}
+
+	/**
+	 * @return ID of key() in CATEGORY_INDEX
+	 */
+	public int keyId() {
+		return cachedKey().id;
+	}
+
 	public String toStringWithoutFeature(){
-		StringBuffer sb = new StringBuffer();
+		Key key = cachedKey();
+		String stripped = key.stripped;
+		if (stripped == null) {
+			StringBuffer sb = new StringBuffer();
+			appendWithoutFeature(sb);
+			stripped = sb.toString();
+			key.stripped = stripped;
+		}
+		return stripped;
+	}
+
+	// the sub-categories are not cached, so their strings are not interned
+	private void appendWithoutFeature(StringBuffer sb){
 		if (_dir == Direction.BASIC) {
 			sb.append(_category);
 		}
 		else {
 			if (_result._depth > 0)
 				sb.append("{");
-			sb.append(_result.toStringWithoutFeature());
+			_result.appendWithoutFeature(sb);
 			if (_result._depth > 0)
 				sb.append("}");
 			sb.append(_dir == Direction.BACKWARD ? '\\' : '/');
 
 			if (_argument._depth > 0)
 				sb.append("{");
-			sb.append(_argument.toStringWithoutFeature());
+			_argument.appendWithoutFeature(sb);
 			if (_argument._depth > 0)
 				sb.append("}");
 		}
-		return sb.toString();
 	}
 	
 	@Override
@@ -819,17 +1028,24 @@ public class CategoryObject { // extends CategoryObject{
 	 * @return true if the two cats have same functor and same co-index relation
 	 */
 	public static boolean compareIndices(CategoryObject x1, CategoryObject x2) {
-		Pattern p = Pattern.compile("[^{_}/\\d\\\\]");
-
 		String s1 = x1.toPredArgCat();
-		Matcher m1 = p.matcher(s1);
-		s1 = m1.replaceAll("");
-
 		String s2 = x2.toPredArgCat();
-		Matcher m2 = p.matcher(s2);
-		s2 = m2.replaceAll("");
+		// compare only the characters of the functors and the indices
+		int i = 0, j = 0;
+		while (true) {
+			while (i < s1.length() && !isIndexChar(s1.charAt(i)))
+				++i;
+			while (j < s2.length() && !isIndexChar(s2.charAt(j)))
+				++j;
+			if (i == s1.length() || j == s2.length())
+				return i == s1.length() && j == s2.length();
+			if (s1.charAt(i++) != s2.charAt(j++))
+				return false;
+		}
+	}
 
-		return s1.equals(s2);
+	private static boolean isIndexChar(char c) {
+		return c == '{' || c == '_' || c == '}' || c == '/' || c == '\\' || (c >= '0' && c <= '9');
 	}
 
 	private static void merge(CoindexedObject x1, CoindexedObject x2,
@@ -958,8 +1174,10 @@ public class CategoryObject { // extends CategoryObject{
 				// by default co-indexed object have only one feature
 				for (CategoryObject c : x) {
 					if (c._dir == Direction.BASIC) {
-						if (c._category.equals(cat))
+						if (c._category.equals(cat)) {
 							c._feature = feat;
+							c.touch();
+						}
 					} else
 						c._category = null; // cache should be cleared
 				}
@@ -2070,6 +2288,7 @@ public class CategoryObject { // extends CategoryObject{
 		if (child._category.equals("N")) {
 			CategoryObject NP = generateFromChild(child);
 			NP._category = "NP"; // I think this way best perform changing rule
+			NP.touch();
 			return NP;
 		}
 		// TODO here's a trouble: S[ng]\NP could generate more than one cat
@@ -2174,9 +2393,11 @@ public class CategoryObject { // extends CategoryObject{
 		} else if (left._category.equals("conj") || left.isPunctuation()) {
 			res = generateFromChild(right);
 			res._isConjunctConstituent = true;
+			res.touch();
 		} else if (right._category.equals("conj") || right.isPunctuation()) {
 			res = generateFromChild(left);
 			res._isConjunctConstituent = true;
+			res.touch();
 //		} else if (null != unify(left, right, indices)){
 //			res = generateFromChild(left, indices);
 //			res.attachHead(right, indices);
@@ -2239,31 +2460,55 @@ public class CategoryObject { // extends CategoryObject{
 		return false;
 	}
 	
+	/**
+	 * Whether this is X/X or X\\X with no feature but [adj], e.g.
+	 * {S[adj]\\NP}/{S[adj]\\NP}, or {S[to]\\NP}/{S[b]\\NP}.
+	 * The part decided by the strings is cached with the key, so
+	 * toPredArgCat is only built for the few categories which pass.
+	 */
 	public boolean isAdjunct(){
-		if (toString().equals("{{S[to]\\NP}/{S[b]\\NP}}"))
-			return true;
-		if (_dir != Direction.BASIC ){//&& _result.toPredArgCat().equals(_argument.toPredArgCat())){
-			// wsun: Why not
-			// boolean equal? = _headObj==null ? _result.toString().equals(_argument.toString()) : _result.toPredArgCat()....
-			boolean test;
-			if (_headObj != null)
-				test = _result.toPredArgCat().equals(_argument.toPredArgCat());
-			else test = _result.toString().equals(_argument.toString());
-			if (!test)
-				return false;
-			String catString = toString();
-			Pattern p = Pattern.compile("\\[\\w+\\]");
-			Matcher m1 = p.matcher(catString);
-			int z = 0;
-			while (m1.find(z)) {
-				String feat = m1.group();
-				if (!feat.equals("[adj]"))
-					return false;
-				z = m1.end();
-			}
-			return true;
-		}
-		return false;
+		if (_dir == Direction.BASIC)
+			return false;
+		Key key = cachedKey();
+		int form = key.adjunct;
+		if (form == 0) {
+			form = adjunctForm(key.string);
+			key.adjunct = form;
+		}
+		if (form != ADJUNCT_FORM)
+			return form == ADJUNCT;
+		// wsun: Why not
+		// boolean equal? = _headObj==null ? _result.toString().equals(_argument.toString()) : _result.toPredArgCat()....
+		// the coindexation is not tracked by the key, so it is compared on every call
+		if (_headObj != null)
+			return _result.toPredArgCat().equals(_argument.toPredArgCat());
+		return true;
+	}
+
+	private static final int NOT_ADJUNCT = 1;
+	private static final int ADJUNCT = 2;
+	// an adjunct if the coindexation of the result and the argument agrees
+	private static final int ADJUNCT_FORM = 3;
+
+	// what isAdjunct() could tell from key, the string of this category
+	private int adjunctForm(String key) {
+		if (key.equals("{{S[to]\\NP}/{S[b]\\NP}}"))
+			return ADJUNCT;
+		if (!onlyAdjunctFeatures())
+			return NOT_ADJUNCT;
+		// without [conj], the same predArgCat means the same string
+		if (!_result.key().equals(_argument.key()))
+			return NOT_ADJUNCT;
+		return ADJUNCT_FORM;
+	}
+
+	// whether toString() has no feature but [adj], features are always words
+	private boolean onlyAdjunctFeatures() {
+		if (_isConjunctConstituent)
+			return false;
+		if (_dir != Direction.BASIC)
+			return _result.onlyAdjunctFeatures() && _argument.onlyAdjunctFeatures();
+		return _feature == null || _feature.equals("adj");
 	}
 	
 	public CategoryObject removeModifier(){
@@ -2277,7 +2522,12 @@ public class CategoryObject { // extends CategoryObject{
 			return true;
 		if (_category.equals("LQU") || _category.equals("RQU"))
 			return true;
-		return _category.matches("[.,:;'`?!()]+");
+		if (_category.length() == 0)
+			return false;
+		for (int i = 0; i < _category.length(); ++i)
+			if (".,:;'`?!()".indexOf(_category.charAt(i)) < 0)
+				return false;
+		return true;
 	}
 
 	public static void main(String[] args){
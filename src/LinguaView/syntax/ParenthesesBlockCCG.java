@@ -1,34 +1,59 @@
 package LinguaView.syntax;
 
-import java.util.Stack;
-import java.util.Vector;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.List;
 
+/**
+ * A block "(label sub-blocks)" of a CCGbank tree. The label is the text
+ * between the opening parenthesis and the first sub-block, parentheses
+ * inside <...> included. It is kept as offsets into the tree string, and
+ * only taken out when label() is called.
+ */
 public class ParenthesesBlockCCG {
     private static final char L_PAREN    = '(';
     private static final char R_PAREN    = ')';    
     private static final char L_HAT    = '<';
     private static final char R_HAT    = '>';
     
+	String source;
 	int startIndex;
 	int endIndex;
-	String label;
-	Vector<ParenthesesBlockCCG> subBlocks;
+	// the label is source[labelStart, labelEnd), labelEnd is -1 until it is known
+	int labelStart;
+	int labelEnd = -1;
+	private String label = null;
+	List<ParenthesesBlockCCG> subBlocks;
     
-	public ParenthesesBlockCCG(int startIndex) {
+	public ParenthesesBlockCCG(String source, int startIndex) {
+		this.source = source;
 		this.startIndex = startIndex;
-		subBlocks = new Vector<ParenthesesBlockCCG>();
-		label = "";
+		labelStart = startIndex + 1;
+		subBlocks = new ArrayList<ParenthesesBlockCCG>(2);
 	}
-	
+
+	/**
+	 * @return the label, trimmed
+	 */
+	public String label() {
+		if (label == null) {
+			int end = labelEnd < 0 ? source.length() : labelEnd;
+			label = source.substring(Math.min(labelStart, end), end).trim();
+		}
+		return label;
+	}
+
     public static ParenthesesBlockCCG getParenthesesBlocks(String s) {
-        Stack<ParenthesesBlockCCG> stack = new Stack<ParenthesesBlockCCG>();
-        ParenthesesBlockCCG currentBlock = new ParenthesesBlockCCG(0);
+        ArrayDeque<ParenthesesBlockCCG> stack = new ArrayDeque<ParenthesesBlockCCG>();
+        ParenthesesBlockCCG currentBlock = new ParenthesesBlockCCG(s, 0);
         stack.push(currentBlock);
         boolean insideHatParenthesis = false;
         for (int i = 1; i < s.length(); i++) {
         	char c = s.charAt(i);
             if (c == L_PAREN && !insideHatParenthesis)   {            	            	
-            	ParenthesesBlockCCG newBlock = new ParenthesesBlockCCG(i);
+            	ParenthesesBlockCCG newBlock = new ParenthesesBlockCCG(s, i);
+            	if (currentBlock.subBlocks.isEmpty())
+            		currentBlock.labelEnd = i;
             	currentBlock.subBlocks.add(newBlock);
             	stack.push(newBlock);           
             	currentBlock = newBlock;
@@ -36,31 +61,32 @@ public class ParenthesesBlockCCG {
             else if (c == R_PAREN && !insideHatParenthesis) {      
             	currentBlock = stack.pop();
             	currentBlock.endIndex = i;
-            	currentBlock.subBlocks.trimToSize();
-            	currentBlock.label = currentBlock.label.trim();       
+            	if (currentBlock.subBlocks.isEmpty())
+            		currentBlock.labelEnd = i;
             	if (!stack.isEmpty()) currentBlock = stack.peek();
             }
-            else {
-            	if (c == L_HAT) insideHatParenthesis =  true;
-            	else if (c == R_HAT) insideHatParenthesis =  false;
-            	if (currentBlock.subBlocks.isEmpty()){
-            		currentBlock.label += c;
-            	}
-            }
+            else if (c == L_HAT) insideHatParenthesis =  true;
+            else if (c == R_HAT) insideHatParenthesis =  false;
         }
         return currentBlock;
     }
     
     public String toString() {
-    	String result = L_PAREN + label;
+    	StringBuilder sb = new StringBuilder();
+    	toString(sb);
+    	return sb.toString();
+    }
+
+    private void toString(StringBuilder sb) {
+    	sb.append(L_PAREN).append(label());
     	if (!subBlocks.isEmpty()) {
-    		result += " ";
+    		sb.append(' ');
 	    	for(ParenthesesBlockCCG p : subBlocks) {
-	    		result += p.toString() + " ";
+	    		p.toString(sb);
+	    		sb.append(' ');
 	    	}
     	}
-    	result += R_PAREN;
-    	return result;
+    	sb.append(R_PAREN);
     }
 
     public static void main(String[] args) {
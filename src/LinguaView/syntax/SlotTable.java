@@ -0,0 +1,193 @@
+package LinguaView.syntax;
+
+import java.util.HashSet;
+import java.util.Set;
+
+/**
+ * Persistent table of the dependency slots of the words under a CCGNode.
+ * Row i is the word start + i of the node, column j its j-th slot, a slot is
+ * the set of its heads, or null if not filled yet.
+ *
+ * A new node doesn't copy the tables of its children, it shares them and
+ * only records the slots filled by itself. A lookup goes down from the node
+ * to the child which covers the row, the first filled slot on the way is the
+ * latest one.
+ */
+public class SlotTable {
+	private static final int[] NO_INTS = new int[0];
+
+	// flat table of a terminal, or of a gold parse
+	private Set<Integer>[][] _base;
+	// or the tables of the children, _right is null for a unary node
+	private SlotTable _left;
+	private SlotTable _right;
+	private int _numOfRows;
+
+	// the slots filled by this node
+	private int[] _rows = NO_INTS;
+	private int[] _cols = NO_INTS;
+	private Set<Integer>[] _heads;
+	private int _numOfFilled = 0;
+
+	private SlotTable() {
+	}
+
+	/**
+	 * A table on the given slots, which are not copied.
+	 */
+	public static SlotTable of(Set<Integer>[][] slots) {
+		SlotTable t = new SlotTable();
+		t._base = slots;
+		t._numOfRows = slots.length;
+		return t;
+	}
+
+	/**
+	 * The table of one word with numOfSlots unfilled slots.
+	 */
+	@SuppressWarnings("unchecked")
+	public static SlotTable unfilled(int numOfSlots) {
+		return of(new Set[1][numOfSlots]);
+	}
+
+	/**
+	 * The table of a binary node, on top of the current slots of its children.
+	 */
+	public static SlotTable concat(SlotTable left, SlotTable right) {
+		SlotTable t = new SlotTable();
+		t._left = left.snapshot();
+		t._right = right.snapshot();
+		t._numOfRows = left._numOfRows + right._numOfRows;
+		return t;
+	}
+
+	/**
+	 * The table of a unary node, on top of the current slots of its child.
+	 */
+	public static SlotTable extend(SlotTable child) {
+		SlotTable t = new SlotTable();
+		t._left = child.snapshot();
+		t._numOfRows = child._numOfRows;
+		return t;
+	}
+
+	/**
+	 * The heads filled by this node may be shared with its category and
+	 * change later, a parent keeps them as they are when it is built. The
+	 * slots below are never changed and are shared.
+	 */
+	@SuppressWarnings("unchecked")
+	private SlotTable snapshot() {
+		if (_numOfFilled == 0)
+			return this;
+		SlotTable t = new SlotTable();
+		t._base = _base;
+		t._left = _left;
+		t._right = _right;
+		t._numOfRows = _numOfRows;
+		t._rows = _rows;
+		t._cols = _cols;
+		t._numOfFilled = _numOfFilled;
+		t._heads = new Set[_numOfFilled];
+		for (int k = 0; k < _numOfFilled; ++k)
+			t._heads[k] = new HashSet<Integer>(_heads[k]);
+		return t;
+	}
+
+	/**
+	 * Fill a slot, only while the node is being built.
+	 */
+	@SuppressWarnings("unchecked")
+	public void fill(int row, int col, Set<Integer> heads) {
+		for (int k = 0; k < _numOfFilled; ++k) {
+			if (_rows[k] == row && _cols[k] == col) {
+				_heads[k] = heads;
+				return;
+			}
+		}
+		if (_numOfFilled == _rows.length) {
+			int capacity = _rows.length == 0 ? 2 : _rows.length * 2;
+			int[] rows = new int[capacity];
+			int[] cols = new int[capacity];
+			Set<Integer>[] hs = new Set[capacity];
+			System.arraycopy(_rows, 0, rows, 0, _numOfFilled);
+			System.arraycopy(_cols, 0, cols, 0, _numOfFilled);
+			if (_heads != null)
+				System.arraycopy(_heads, 0, hs, 0, _numOfFilled);
+			_rows = rows;
+			_cols = cols;
+			_heads = hs;
+		}
+		_rows[_numOfFilled] = row;
+		_cols[_numOfFilled] = col;
+		_heads[_numOfFilled] = heads;
+		++_numOfFilled;
+	}
+
+	public int numOfRows() {
+		return _numOfRows;
+	}
+
+	/**
+	 * @return the number of slots in row, 0 if the row is unknown
+	 */
+	public int width(int row) {
+		SlotTable t = this;
+		while (t._base == null) {
+			if (row < t._left._numOfRows) {
+				t = t._left;
+			} else {
+				row -= t._left._numOfRows;
+				t = t._right;
+			}
+		}
+		return t._base[row] == null ? 0 : t._base[row].length;
+	}
+
+	/**
+	 * @return the heads of the slot, or null
+	 */
+	public Set<Integer> get(int row, int col) {
+		SlotTable t = this;
+		while (true) {
+			for (int k = 0; k < t._numOfFilled; ++k) {
+				if (t._rows[k] == row && t._cols[k] == col)
+					return t._heads[k];
+			}
+			if (t._base != null)
+				return t._base[row][col];
+			if (row < t._left._numOfRows) {
+				t = t._left;
+			} else {
+				row -= t._left._numOfRows;
+				t = t._right;
+			}
+		}
+	}
+
+	/**
+	 * @return a flat copy of the table, the heads are shared
+	 */
+	@SuppressWarnings("unchecked")
+	public Set<Integer>[][] toArray() {
+		Set<Integer>[][] slots = new Set[_numOfRows][];
+		for (int i = 0; i < _numOfRows; ++i) {
+			slots[i] = new Set[width(i)];
+			for (int j = 0; j < slots[i].length; ++j)
+				slots[i][j] = get(i, j);
+		}
+		return slots;
+	}
+
+	/**
+	 * @return if every slot of row is filled
+	 */
+	public boolean isFilled(int row) {
+		int width = width(row);
+		for (int j = 0; j < width; ++j) {
+			if (get(row, j) == null)
+				return false;
+		}
+		return true;
+	}
+}
@@ -1,5 +1,7 @@
 package SyntaxUtils;
 
+import java.util.concurrent.ConcurrentHashMap;
+
 /**
  * 
  * @author C. Wang, wsun
@@ -16,24 +18,71 @@ public class Action {
 	final CCGUnaryRule _uRule; // replace it with index in grammar
 	final CCGBinaryRule _bRule;
 	final String _tag;
+	// _tag without the co-indexation marks, compared by equals()
+	private final String _normalizedTag;
+	private final int _id;
+
+	/*
+	 * Actions are interned, one per shift tag and per rule, so that they are
+	 * never allocated while parsing and could be keyed by their IDs.
+	 */
+	private static final ConcurrentHashMap<String, Action> SHIFT_ACTIONS = new ConcurrentHashMap<String, Action>();
+	private static final ConcurrentHashMap<CCGUnaryRule, Action> UNARY_ACTIONS = new ConcurrentHashMap<CCGUnaryRule, Action>();
+	private static final ConcurrentHashMap<CCGBinaryRule, Action> REDUCE_ACTIONS = new ConcurrentHashMap<CCGBinaryRule, Action>();
+	private static int _numOfActions = 0;
 
-	private Action(ActionType type, CCGUnaryRule u, CCGBinaryRule b, String tag) {
+	private Action(ActionType type, CCGUnaryRule u, CCGBinaryRule b, String tag, int id) {
 		_type = type;
 		_uRule = u;
 		_tag = tag;
 		_bRule = b;
+		_normalizedTag = tag == null ? null : normalize(tag);
+		_id = id;
+	}
+
+	private static String normalize(String tag) {
+		tag = tag.replaceAll("_[0-9]+", "");
+		tag = tag.replaceAll("\\{[_*A-Z]+\\}", "");
+		return tag.replaceAll("<[0-9]+>", "");
 	}
 
 	public static Action getShiftAction(String tag) {
-		return new Action(ActionType.SHIFT, null, null, tag);
+		Action a = SHIFT_ACTIONS.get(tag);
+		return a != null ? a : intern(SHIFT_ACTIONS, tag, ActionType.SHIFT, null, null, tag);
 	}
 
 	public static Action getUnaryAction(CCGUnaryRule uRule) {
-		return new Action(ActionType.UNARY, uRule, null, null);
+		Action a = UNARY_ACTIONS.get(uRule);
+		return a != null ? a : intern(UNARY_ACTIONS, uRule, ActionType.UNARY, uRule, null, null);
 	}
 
 	public static Action getReduceAction(CCGBinaryRule bRule) {
-		return new Action(ActionType.REDUCE, null, bRule, null);
+		Action a = REDUCE_ACTIONS.get(bRule);
+		return a != null ? a : intern(REDUCE_ACTIONS, bRule, ActionType.REDUCE, null, bRule, null);
+	}
+
+	private static synchronized <K> Action intern(ConcurrentHashMap<K, Action> actions, K key,
+			ActionType type, CCGUnaryRule u, CCGBinaryRule b, String tag) {
+		Action a = actions.get(key);
+		if (a == null) {
+			a = new Action(type, u, b, tag, _numOfActions++);
+			actions.put(key, a);
+		}
+		return a;
+	}
+
+	/**
+	 * @return the ID of this action, dense from 0 in the order of interning
+	 */
+	public int id() {
+		return _id;
+	}
+
+	/**
+	 * @return the number of interned actions, all the IDs are less than it
+	 */
+	public static synchronized int numOfActions() {
+		return _numOfActions;
 	}
 
 	public boolean isShiftAction() {
@@ -75,13 +124,7 @@ public class Action {
 			return false;
 		switch (_type) {
 		case SHIFT:
-			String tag1 = _tag.replaceAll("_[0-9]+", "");
-			String tag2 = another._tag.replaceAll("_[0-9]+", "");
-			tag1 = tag1.replaceAll("\\{[_*A-Z]+\\}", "");
-			tag2 = tag2.replaceAll("\\{[_*A-Z]+\\}", "");
-			tag1 = tag1.replaceAll("<[0-9]+>", "");
-			tag2 = tag2.replaceAll("<[0-9]+>", "");
-			return tag1.equals(tag2);
+			return _normalizedTag.equals(another._normalizedTag);
 			// if more than one co-indexed way exists for a category,
 			// then we should use the Category.equals method
 		case REDUCE:
@@ -92,7 +135,16 @@ public class Action {
 		return true; // for finish
 	}
 
-	// TODO not necessary currently
-	// public int hashCode(){
-	// }
+	@Override
+	public int hashCode() {
+		switch (_type) {
+		case SHIFT:
+			return _normalizedTag.hashCode();
+		case REDUCE:
+			return 31 * _bRule.hashCode() + 1;
+		case UNARY:
+			return 31 * _uRule.hashCode() + 2;
+		}
+		return 0;
+	}
 }
\ No newline at end of file
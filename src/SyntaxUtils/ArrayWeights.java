@@ -0,0 +1,445 @@
+package SyntaxUtils;
+
+import java.io.IOException;
+import java.io.Serializable;
+import java.io.Writer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map.Entry;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.ardverk.collection.PatriciaTrie;
+
+/**
+ * Weight store of PerceptronClassifier backed by a flat float array.
+ * String features and hashed features are mapped to positions in the array
+ * by two primitive dictionaries, so a weight is read or updated without
+ * any boxing.
+ */
+public class ArrayWeights implements Serializable {
+	private static final long serialVersionUID = 4785402467612377393L;
+
+	// string feature -> position in _weights
+	private StringIntMap _stringIndex = new StringIntMap();
+	// hashed feature -> position in _weights
+	private LongIntMap _hashedIndex = new LongIntMap();
+	// the arrays are only replaced by grown copies, see setConcurrent
+	private volatile float[] _weights = new float[1024];
+	private int _size = 0;
+
+	// averaged perceptron, null unless startAveraging() is called.
+	// _totals[i] is the sum of the weight i over all instances up to
+	// _stamps[i], the rest is added lazily when the weight changes.
+	private volatile double[] _totals = null;
+	private volatile int[] _stamps = null;
+	private final AtomicInteger _clock = new AtomicInteger(0);
+
+	// concurrent updates, null unless setConcurrent(true) is called.
+	// A weight is updated under one of the stripe locks, the arrays are
+	// grown under all of them so that no update is lost in the copy.
+	private static final int NUM_STRIPES = 64;
+	private transient Object[] _stripes = null;
+
+	public ArrayWeights() {
+	}
+
+	public ArrayWeights(ArrayWeights another) {
+		_stringIndex = new StringIntMap(another._stringIndex);
+		_hashedIndex = new LongIntMap(another._hashedIndex);
+		_weights = another._weights.clone();
+		_size = another._size;
+		if (another._totals != null) {
+			_totals = another._totals.clone();
+			_stamps = another._stamps.clone();
+		}
+		_clock.set(another._clock.get());
+	}
+
+	/**
+	 * @return position of the feature, or -1 if it has never been seen
+	 */
+	public int indexOf(String feature) {
+		int p = _stringIndex.indexOf(feature);
+		return p < 0 ? -1 : _stringIndex.valueAt(p);
+	}
+
+	public int indexOf(long feature) {
+		int p = _hashedIndex.indexOf(feature);
+		return p < 0 ? -1 : _hashedIndex.valueAt(p);
+	}
+
+	private int getIndex(String feature) {
+		int p = _stringIndex.indexOf(feature);
+		if (p >= 0)
+			return _stringIndex.valueAt(p);
+		int index = newIndex();
+		_stringIndex.put(feature, index);
+		return index;
+	}
+
+	private int getIndex(long feature) {
+		int p = _hashedIndex.indexOf(feature);
+		if (p >= 0)
+			return _hashedIndex.valueAt(p);
+		int index = newIndex();
+		_hashedIndex.put(feature, index);
+		return index;
+	}
+
+	/**
+	 * The position of a new feature, to be put into a dictionary only
+	 * after this returns, as the arrays may be grown.
+	 */
+	private int newIndex() {
+		if (_size == _weights.length) {
+			if (_stripes == null)
+				grow(_size * 2);
+			else
+				growLocked(_size * 2, 0);
+		}
+		if (_totals != null) {
+			_totals[_size] = 0;
+			_stamps[_size] = _clock.get();
+		}
+		return _size++;
+	}
+
+	private void grow(int capacity) {
+		if (_totals != null) {
+			_totals = Arrays.copyOf(_totals, capacity);
+			_stamps = Arrays.copyOf(_stamps, capacity);
+		}
+		_weights = Arrays.copyOf(_weights, capacity);
+	}
+
+	// grow with the stripes from stripe on locked
+	private void growLocked(int capacity, int stripe) {
+		if (stripe == NUM_STRIPES) {
+			grow(capacity);
+			return;
+		}
+		synchronized (_stripes[stripe]) {
+			growLocked(capacity, stripe + 1);
+		}
+	}
+
+	/**
+	 * Let several threads score and update the weights at the same time
+	 * through score() and add(feats, sign). The other methods are still
+	 * not thread-safe.
+	 * Scoring takes no lock: it reads the dictionaries, which could be
+	 * read while a feature is added, and then the published weight array.
+	 * A known feature is updated under a stripe lock, and new features are
+	 * added by one thread at a time, which only locks all the stripes to
+	 * grow the arrays.
+	 */
+	public void setConcurrent(boolean concurrent) {
+		if (!concurrent) {
+			_stripes = null;
+			return;
+		}
+		if (_stripes != null)
+			return;
+		Object[] stripes = new Object[NUM_STRIPES];
+		for (int i = 0; i < NUM_STRIPES; ++i)
+			stripes[i] = new Object();
+		_stripes = stripes;
+	}
+
+	public boolean isConcurrent() {
+		return _stripes != null;
+	}
+
+	private void update(int i, float delta) {
+		if (_totals != null)
+			settle(i);
+		_weights[i] += delta;
+	}
+
+	/**
+	 * Bring _totals[i] up to the current instance.
+	 */
+	private void settle(int i) {
+		int clock = _clock.get();
+		_totals[i] += (double) (clock - _stamps[i]) * _weights[i];
+		_stamps[i] = clock;
+	}
+
+	/**
+	 * Start accumulating the averaged weights from now on.
+	 */
+	public void startAveraging() {
+		if (_totals != null)
+			return;
+		_stamps = new int[_weights.length];
+		_totals = new double[_weights.length];
+		_clock.set(0);
+	}
+
+	public boolean isAveraging() {
+		return _totals != null;
+	}
+
+	/**
+	 * One more training instance has been seen, to be called after its
+	 * update, so that the weights it leaves are counted for it.
+	 */
+	public void tick() {
+		_clock.incrementAndGet();
+	}
+
+	/**
+	 * @return number of training instances since startAveraging()
+	 */
+	public int clock() {
+		return _clock.get();
+	}
+
+	/**
+	 * The averaged weights, settled in one pass over the features, so it
+	 * takes O(size()) time and a copy of the arrays.
+	 * The training state is not modified.
+	 * @return a new weight store without averaging
+	 */
+	public ArrayWeights average() {
+		ArrayWeights avg = new ArrayWeights();
+		avg._stringIndex = new StringIntMap(_stringIndex);
+		avg._hashedIndex = new LongIntMap(_hashedIndex);
+		avg._weights = new float[_weights.length];
+		avg._size = _size;
+		int clock = _clock.get();
+		for (int i = 0; i < _size; ++i) {
+			if (_totals == null || clock == 0) {
+				avg._weights[i] = _weights[i];
+				continue;
+			}
+			double total = _totals[i] + (double) (clock - _stamps[i]) * _weights[i];
+			avg._weights[i] = (float) (total / clock);
+		}
+		return avg;
+	}
+
+	public float get(String feature) {
+		int i = indexOf(feature);
+		return i < 0 ? 0 : _weights[i];
+	}
+
+	public float get(long feature) {
+		int i = indexOf(feature);
+		return i < 0 ? 0 : _weights[i];
+	}
+
+	public void add(String feature, float delta) {
+		// getIndex may grow _weights, so it must be called first
+		update(getIndex(feature), delta);
+	}
+
+	public void add(long feature, float delta) {
+		update(getIndex(feature), delta);
+	}
+
+	// _weights is read after the position, so that it is long enough
+	public double score(PatriciaTrie<String, Integer> feats) {
+		double score = 0;
+		for (Entry<String, Integer> e : feats.entrySet()) {
+			int i = indexOf(e.getKey());
+			if (i >= 0)
+				score += e.getValue() * _weights[i];
+		}
+		return score;
+	}
+
+	public double score(HashedFeatureSet feats) {
+		double score = 0;
+		for (int k = 0; k < feats.size(); ++k) {
+			int i = indexOf(feats.keyAt(k));
+			if (i >= 0)
+				score += feats.valueAt(k) * _weights[i];
+		}
+		return score;
+	}
+
+	/**
+	 * weights += sign * feats
+	 */
+	public void add(PatriciaTrie<String, Integer> feats, int sign) {
+		if (_stripes == null) {
+			for (Entry<String, Integer> e : feats.entrySet())
+				add(e.getKey(), sign * e.getValue());
+			return;
+		}
+		List<Entry<String, Integer>> unseen = null;
+		for (Entry<String, Integer> e : feats.entrySet()) {
+			int i = indexOf(e.getKey());
+			if (i >= 0) {
+				updateStriped(i, sign * e.getValue());
+			} else {
+				if (unseen == null)
+					unseen = new ArrayList<Entry<String, Integer>>();
+				unseen.add(e);
+			}
+		}
+		if (unseen != null)
+			addUnseen(unseen, sign);
+	}
+
+	// another thread may have added some of them since
+	private synchronized void addUnseen(List<Entry<String, Integer>> unseen, int sign) {
+		for (Entry<String, Integer> e : unseen) {
+			int i = indexOf(e.getKey());
+			if (i < 0) {
+				i = newIndex();
+				_stringIndex.put(e.getKey(), i);
+			}
+			updateStriped(i, sign * e.getValue());
+		}
+	}
+
+	public void add(HashedFeatureSet feats, int sign) {
+		if (_stripes == null) {
+			for (int k = 0; k < feats.size(); ++k)
+				add(feats.keyAt(k), sign * feats.valueAt(k));
+			return;
+		}
+		// positions in feats of the features unseen in the first pass
+		int[] unseen = null;
+		int numOfUnseen = 0;
+		for (int k = 0; k < feats.size(); ++k) {
+			int i = indexOf(feats.keyAt(k));
+			if (i >= 0) {
+				updateStriped(i, sign * feats.valueAt(k));
+			} else {
+				if (unseen == null)
+					unseen = new int[feats.size()];
+				unseen[numOfUnseen++] = k;
+			}
+		}
+		if (numOfUnseen > 0)
+			addUnseen(feats, unseen, numOfUnseen, sign);
+	}
+
+	private synchronized void addUnseen(HashedFeatureSet feats, int[] unseen, int numOfUnseen, int sign) {
+		for (int j = 0; j < numOfUnseen; ++j) {
+			long feature = feats.keyAt(unseen[j]);
+			int i = indexOf(feature);
+			if (i < 0) {
+				i = newIndex();
+				_hashedIndex.put(feature, i);
+			}
+			updateStriped(i, sign * feats.valueAt(unseen[j]));
+		}
+	}
+
+	private void updateStriped(int i, float delta) {
+		// the arrays are read under the lock, after any growth
+		synchronized (_stripes[i & (NUM_STRIPES - 1)]) {
+			update(i, delta);
+		}
+	}
+
+	/**
+	 * weights += scale * another, used to mix the weights trained on
+	 * different shards.
+	 */
+	public void addAll(ArrayWeights another, float scale) {
+		for (int k = 0; k < another._stringIndex.size(); ++k)
+			add(another._stringIndex.keyAt(k), scale * another._weights[another._stringIndex.valueAt(k)]);
+		for (int k = 0; k < another._hashedIndex.size(); ++k)
+			add(another._hashedIndex.keyAt(k), scale * another._weights[another._hashedIndex.valueAt(k)]);
+	}
+
+	/**
+	 * Remove the features whose weights are 0, and compact the array.
+	 * While averaging, a feature is kept as long as its total is not 0.
+	 */
+	public void rebuild() {
+		int capacity = Math.max(_size, 16);
+		float[] weights = new float[capacity];
+		double[] totals = _totals == null ? null : new double[capacity];
+		int size = 0;
+		StringIntMap stringIndex = new StringIntMap();
+		for (int k = 0; k < _stringIndex.size(); ++k) {
+			int i = _stringIndex.valueAt(k);
+			if (isZero(i))
+				continue;
+			weights[size] = _weights[i];
+			if (totals != null)
+				totals[size] = _totals[i];
+			stringIndex.put(_stringIndex.keyAt(k), size++);
+		}
+		LongIntMap hashedIndex = new LongIntMap();
+		for (int k = 0; k < _hashedIndex.size(); ++k) {
+			int i = _hashedIndex.valueAt(k);
+			if (isZero(i))
+				continue;
+			weights[size] = _weights[i];
+			if (totals != null)
+				totals[size] = _totals[i];
+			hashedIndex.put(_hashedIndex.keyAt(k), size++);
+		}
+		_weights = weights;
+		_size = size;
+		_stringIndex = stringIndex;
+		_hashedIndex = hashedIndex;
+		if (totals != null) {
+			// every total has been settled in isZero
+			_totals = totals;
+			_stamps = new int[capacity];
+			Arrays.fill(_stamps, _clock.get());
+		}
+	}
+
+	private boolean isZero(int i) {
+		if (_totals == null)
+			return _weights[i] == 0;
+		settle(i);
+		return _weights[i] == 0 && _totals[i] == 0;
+	}
+
+	/**
+	 * number of features
+	 */
+	public int size() {
+		return _size;
+	}
+
+	public StringIntMap stringIndex() {
+		return _stringIndex;
+	}
+
+	public LongIntMap hashedIndex() {
+		return _hashedIndex;
+	}
+
+	/**
+	 * @param i position given by stringIndex() or hashedIndex()
+	 */
+	public float weightAt(int i) {
+		return _weights[i];
+	}
+
+	/**
+	 * Dump the string features as PerceptronClassifier.dump does.
+	 * Integral weights are written as integers and the others as floats.
+	 * PerceptronClassifier.load keeps a dump of integers in the trie, and
+	 * moves to array weights once it reads a float.
+	 */
+	public void dump(Writer w) throws IOException {
+		for (int k = 0; k < _stringIndex.size(); ++k)
+			w.write(format(_weights[_stringIndex.valueAt(k)]) + "\t" + _stringIndex.keyAt(k) + "\n");
+		w.write("\n");
+	}
+
+	public void dumpHashed(Writer w) throws IOException {
+		for (int k = 0; k < _hashedIndex.size(); ++k)
+			w.write(format(_weights[_hashedIndex.valueAt(k)]) + "\t" + _hashedIndex.keyAt(k) + "\n");
+		w.write("\n");
+	}
+
+	static String format(float weight) {
+		if (weight == (int) weight)
+			return Integer.toString((int) weight);
+		return Float.toString(weight);
+	}
+}
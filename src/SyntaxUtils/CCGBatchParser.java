@@ -0,0 +1,177 @@
+package SyntaxUtils;
+
+import java.io.BufferedReader;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.PrintWriter;
+import java.io.Writer;
+import java.util.LinkedList;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import jigsaw.syntax.Lexicon;
+import fig.basic.LogInfo;
+
+/**
+ * Parse a corpus with one CCGChart per sentence on a pool of worker threads.
+ * Sentences are streamed from the input, at most a few of them per thread are
+ * pending at any time, and the results are written in the input order.
+ * The grammar, the classifier and the lexicons are shared by all the workers
+ * and must not be modified while parsing.
+ */
+public class CCGBatchParser {
+	private static final int PENDING_PER_THREAD = 4;
+
+	private Lexicon _wordLexicon;
+	private Lexicon _posLexicon;
+	private String[] _interpretation;
+	private CCGGrammar _grammar;
+	private PerceptronClassifier _classifier;
+	private int _beam;
+	private int _numThreads;
+
+	private int _numOfSents = 0;
+	private double _seconds = 0;
+
+	public CCGBatchParser(Lexicon wordLex, Lexicon posLex, String[] interpretation,
+			CCGGrammar g, PerceptronClassifier c, int beamSize, int numThreads) {
+		_wordLexicon = wordLex;
+		_posLexicon = posLex;
+		_interpretation = interpretation;
+		_grammar = g;
+		_classifier = c;
+		_beam = beamSize;
+		_numThreads = numThreads > 0 ? numThreads : 1;
+	}
+
+	private class ParseTask implements Callable<CCGParseResult> {
+		private SentenceForCCGParsing _sent;
+
+		private ParseTask(SentenceForCCGParsing sent) {
+			_sent = sent;
+		}
+
+		@Override
+		public CCGParseResult call() {
+			CCGChart chart = new CCGChart(_sent, null, _wordLexicon, _posLexicon,
+					_interpretation, _grammar, _classifier, _beam);
+			chart.parse(false);
+			return chart.getResult();
+		}
+	}
+
+	/**
+	 * Parse all sentences of br and write the derivations to w.
+	 * @param br
+	 * @param inColumn sentences are in column format, otherwise in word/pos format
+	 * @param firstLineIsSource
+	 * @param w
+	 * @return number of sentences parsed
+	 * @throws IOException
+	 */
+	public int parse(BufferedReader br, boolean inColumn, boolean firstLineIsSource, Writer w) throws IOException {
+		ExecutorService pool = Executors.newFixedThreadPool(_numThreads);
+		LinkedList<SentenceForCCGParsing> sents = new LinkedList<SentenceForCCGParsing>();
+		LinkedList<Future<CCGParseResult>> pending = new LinkedList<Future<CCGParseResult>>();
+		int maxPending = _numThreads * PENDING_PER_THREAD;
+		int count = 0;
+		long start = System.nanoTime();
+		try {
+			SentenceForCCGParsing sent = nextSent(br, inColumn, firstLineIsSource);
+			while (sent != null || !pending.isEmpty()) {
+				// submit until the window is full, then wait for the oldest one
+				if (sent != null && pending.size() < maxPending) {
+					sents.add(sent);
+					pending.add(pool.submit(new ParseTask(sent)));
+					sent = nextSent(br, inColumn, firstLineIsSource);
+					continue;
+				}
+				write(sents.removeFirst(), pending.removeFirst(), w);
+				++count;
+			}
+			w.flush();
+		} finally {
+			pool.shutdownNow();
+		}
+		_seconds = (System.nanoTime() - start) / 1e9;
+		_numOfSents = count;
+		LogInfo.logs(String.format("%d sentences parsed in %.2f s, %.2f sentences/s",
+				count, _seconds, sentencesPerSecond()));
+		return count;
+	}
+
+	private static SentenceForCCGParsing nextSent(BufferedReader br, boolean inColumn,
+			boolean firstLineIsSource) throws IOException {
+		return inColumn ? SentenceForCCGParsing.readSentInColumn(br, firstLineIsSource)
+				: SentenceForCCGParsing.readSent(br, firstLineIsSource);
+	}
+
+	private static void write(SentenceForCCGParsing sent, Future<CCGParseResult> f, Writer w) throws IOException {
+		CCGParseResult pr = null;
+		try {
+			pr = f.get();
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new IOException("interrupted while parsing", e);
+		} catch (ExecutionException e) {
+			System.err.println("fail to parse " + (sent.source == null ? sent.toString() : sent.source));
+			e.getCause().printStackTrace();
+		}
+		if (pr != null) {
+			w.write(pr.toAutoString() + "\n");
+		} else {
+			// keep the output aligned with the input
+			if (sent.source != null)
+				w.write(sent.source + "\n");
+			w.write("\n");
+		}
+	}
+
+	/**
+	 * Throughput of the last call of parse
+	 * @return
+	 */
+	public double sentencesPerSecond() {
+		return _seconds > 0 ? _numOfSents / _seconds : 0;
+	}
+
+	public static void main(String args[]) throws IOException {
+		if (args.length < 6) {
+			System.err.println("Usage: <grammar-file> <model-file> <word-lexicon> <pos-lexicon> <input> <output> [threads] [beam] [metrics-file]");
+			System.exit(-1);
+		}
+		// text or binary dumps
+		CCGGrammar g = ModelConverter.loadGrammar(args[0]);
+		PerceptronClassifier c = ModelConverter.loadModel(args[1]);
+		Lexicon wordLex = new Lexicon();
+		wordLex.loadLexicon(args[2]);
+		Lexicon posLex = new Lexicon(wordLex.tags());
+		posLex.loadLexicon(args[3]);
+		// lexical categories are interpreted by their markedup form
+		String[] interpretation = wordLex.tags().symbols();
+		int threads = args.length > 6 ? Integer.parseInt(args[6]) : Runtime.getRuntime().availableProcessors();
+		int beam = args.length > 7 ? Integer.parseInt(args[7]) : 16;
+		// a snapshot of the metrics is written in JSON for a .json file, in text otherwise
+		String metricsFile = args.length > 8 ? args[8] : null;
+		if (metricsFile != null)
+			CCGChart.METRICS = new ParseMetrics();
+
+		CCGBatchParser parser = new CCGBatchParser(wordLex, posLex, interpretation, g, c, beam, threads);
+		BufferedReader br = new BufferedReader(new InputStreamReader(new FileInputStream(args[4]), "UTF-8"));
+		PrintWriter pw = new PrintWriter(new OutputStreamWriter(new FileOutputStream(args[5]), "UTF-8"));
+		parser.parse(br, false, true, pw);
+		br.close();
+		pw.close();
+		if (metricsFile != null) {
+			PrintWriter mw = new PrintWriter(new OutputStreamWriter(new FileOutputStream(metricsFile), "UTF-8"));
+			mw.print(metricsFile.endsWith(".json") ? CCGChart.METRICS.toJson() + "\n" : CCGChart.METRICS.toString());
+			mw.close();
+		}
+	}
+}
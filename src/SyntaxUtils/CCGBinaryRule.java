@@ -1,8 +1,7 @@
 package SyntaxUtils;
 
-import java.lang.reflect.Method;
-import java.util.EnumMap;
 import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
 
 import LinguaView.syntax.CategoryObject;
 import LinguaView.syntax.CategoryObject.CoindexedObject;
@@ -25,26 +24,89 @@ public class CCGBinaryRule extends CCGRule {
 	};
 	public static int typeHead[] = {0, 0, 1, 0, 1, 1, 0, 0, 1, 0, 1, 0, 1, 0 };
 
-	public static EnumMap<RuleType, Method> typeMethod;
-	public static EnumMap<RuleType, Method> tryAllMethod;
-	static {
-		typeMethod = new EnumMap<RuleType, Method>(RuleType.class);
-		tryAllMethod = new EnumMap<RuleType, Method>(RuleType.class);
-		RuleType[] types = RuleType.values();
-		for (int i = 0; i < types.length; ++i) {
-			try {
-				typeMethod.put(types[i], CategoryObject.class
-						.getDeclaredMethod(types[i].toString(),
-								CategoryObject.class, CategoryObject.class,
-								CategoryObject.class, Map.class));
-				tryAllMethod.put(types[i], CategoryObject.class
-						.getDeclaredMethod(types[i].toString(),
-								CategoryObject.class, CategoryObject.class));
-			} catch (SecurityException e) {
-				e.printStackTrace();
-			} catch (NoSuchMethodException e) {
-				e.printStackTrace();
-			}
+	private static final RuleType[] TYPES = RuleType.values();
+
+	/*
+	 * results of tryAllRules by the packed category IDs of (left, right),
+	 * NO_RULE if no rule applies
+	 */
+	private static final ConcurrentHashMap<Long, CCGBinaryRule> _triedRules = new ConcurrentHashMap<Long, CCGBinaryRule>();
+	private static final CCGBinaryRule NO_RULE = new CCGBinaryRule("", "", "", 0, 0, RuleType.unknown);
+
+	/**
+	 * Check if left + right -> res by the combinator of type, and unify the
+	 * categories.
+	 */
+	public static boolean apply(RuleType type, CategoryObject left,
+			CategoryObject right, CategoryObject res,
+			Map<CoindexedObject, CoindexedObject> indices) {
+		switch (type) {
+		case coordination:
+			return CategoryObject.coordination(left, right, res, indices);
+		case forwardApply:
+			return CategoryObject.forwardApply(left, right, res, indices);
+		case backwardApply:
+			return CategoryObject.backwardApply(left, right, res, indices);
+		case simpleForwardCompose:
+			return CategoryObject.simpleForwardCompose(left, right, res, indices);
+		case simpleBackwardCompose:
+			return CategoryObject.simpleBackwardCompose(left, right, res, indices);
+		case crossBackwardCompose:
+			return CategoryObject.crossBackwardCompose(left, right, res, indices);
+		case crossForwardCompose:
+			return CategoryObject.crossForwardCompose(left, right, res, indices);
+		case generalizedForwardCompose:
+			return CategoryObject.generalizedForwardCompose(left, right, res, indices);
+		case generalizedBackwardCompose:
+			return CategoryObject.generalizedBackwardCompose(left, right, res, indices);
+		case generalizedForwardCrossCompose:
+			return CategoryObject.generalizedForwardCrossCompose(left, right, res, indices);
+		case generalizedBackwardCrossCompose:
+			return CategoryObject.generalizedBackwardCrossCompose(left, right, res, indices);
+		case forwardSubstitute:
+			return CategoryObject.forwardSubstitute(left, right, res, indices);
+		case backwardSubstitute:
+			return CategoryObject.backwardSubstitute(left, right, res, indices);
+		default:
+			return false;
+		}
+	}
+
+	/**
+	 * Combine left and right by the combinator of type.
+	 * @return the result, or null if the combinator doesn't apply
+	 */
+	public static CategoryObject apply(RuleType type, CategoryObject left,
+			CategoryObject right) {
+		switch (type) {
+		case coordination:
+			return CategoryObject.coordination(left, right);
+		case forwardApply:
+			return CategoryObject.forwardApply(left, right);
+		case backwardApply:
+			return CategoryObject.backwardApply(left, right);
+		case simpleForwardCompose:
+			return CategoryObject.simpleForwardCompose(left, right);
+		case simpleBackwardCompose:
+			return CategoryObject.simpleBackwardCompose(left, right);
+		case crossBackwardCompose:
+			return CategoryObject.crossBackwardCompose(left, right);
+		case crossForwardCompose:
+			return CategoryObject.crossForwardCompose(left, right);
+		case generalizedForwardCompose:
+			return CategoryObject.generalizedForwardCompose(left, right);
+		case generalizedBackwardCompose:
+			return CategoryObject.generalizedBackwardCompose(left, right);
+		case generalizedForwardCrossCompose:
+			return CategoryObject.generalizedForwardCrossCompose(left, right);
+		case generalizedBackwardCrossCompose:
+			return CategoryObject.generalizedBackwardCrossCompose(left, right);
+		case forwardSubstitute:
+			return CategoryObject.forwardSubstitute(left, right);
+		case backwardSubstitute:
+			return CategoryObject.backwardSubstitute(left, right);
+		default:
+			return null;
 		}
 	}
 
@@ -63,6 +125,19 @@ public class CCGBinaryRule extends CCGRule {
 		this.freq = freq;
 	}
 
+	/**
+	 * A rule whose type is already known, e.g. read from a binary grammar.
+	 */
+	CCGBinaryRule(String left, String right, String result, int head,
+			int freq, RuleType type) {
+		this.left = left;
+		this.right = right;
+		this.result = result;
+		this.type = type;
+		this.freq = freq;
+		headChild = head;
+	}
+
 	public CCGBinaryRule(String io) {
 		String ss[] = io.split("\\s+");
 		// rule is like "freq # type # head # res --> left right"
@@ -92,13 +167,11 @@ public class CCGBinaryRule extends CCGRule {
 		CategoryObject lc = CategoryObject.fromPlainCat(left);
 		CategoryObject rc = CategoryObject.fromPlainCat(right);
 		CategoryObject res = CategoryObject.fromPlainCat(result);
-		RuleType types[] = RuleType.values();
-		for (int i = 0; i < types.length; ++i) {
-			Method m = typeMethod.get(types[i]);
+		for (int i = 0; i < TYPES.length; ++i) {
 			try {
-				if ((Boolean) (m.invoke(null, lc, rc, res, null)))
-					return types[i];
-			} catch (Exception e) {
+				if (apply(TYPES[i], lc, rc, res, null))
+					return TYPES[i];
+			} catch (RuntimeException e) {
 				e.printStackTrace();
 			}
 		}
@@ -109,21 +182,36 @@ public class CCGBinaryRule extends CCGRule {
 		return 2;
 	}
 
+	/**
+	 * Find the first combinator that applies to left and right, the result
+	 * is cached for the pair of categories.
+	 * @return the rule, or null. It is the one cached for the pair, shared by
+	 * all the callers and threads, so it must not be modified
+	 */
 	public static CCGBinaryRule tryAllRules(CategoryObject left, CategoryObject right){
+		Long key = ((long) left.keyId() << 32) | (right.keyId() & 0xffffffffL);
+		CCGBinaryRule rule = _triedRules.get(key);
+		if (rule == null) {
+			rule = tryAllRulesUncached(left, right);
+			_triedRules.put(key, rule == null ? NO_RULE : rule);
+		}
+		return rule == NO_RULE ? null : rule;
+	}
+
+	/**
+	 * tryAllRules without the cache, a new rule each time
+	 */
+	static CCGBinaryRule tryAllRulesUncached(CategoryObject left, CategoryObject right){
 		try{
-			Object res = null;
-			RuleType types[] = RuleType.values();
-			for (int i = 0; i < types.length - 1; ++i){ //don't try unknown type
-				Method m = tryAllMethod.get(types[i]);
-				res = m.invoke(null, left, right);
-				//res = tryAllMethod.get(i).invoke(null, left, right);
+			for (int i = 0; i < TYPES.length - 1; ++i){ //don't try unknown type
+				CategoryObject res = apply(TYPES[i], left, right);
 				if (res != null){
-					CCGBinaryRule bRule = new CCGBinaryRule(left.toString(), right.toString(), res.toString(), typeHead[i]);
+					CCGBinaryRule bRule = new CCGBinaryRule(left.key(), right.key(), res.toString(), typeHead[i]);
 					return bRule;
 				}
 			}
 			return null;
-		}catch (Exception e){
+		}catch (RuntimeException e){
 			e.printStackTrace();
 		}
 		return null;
@@ -134,15 +222,13 @@ public class CCGBinaryRule extends CCGRule {
 //		if (type == RuleType.unknown)
 //			return null;
 		CategoryObject res = CategoryObject.fromPlainCat(result);
-		Method m = typeMethod.get(type);
-//		System.err.print(type+" "+m);
+//		System.err.print(type);
 		try {
-			if (m != null
-					&& (Boolean) m.invoke(null, left, right, res, indices)) {
+			if (apply(type, left, right, res, indices)) {
 //				System.err.println(left+"+"+right+"=>"+res);
 				return res;
 			}
-		} catch (Exception e) {
+		} catch (RuntimeException e) {
 			e.printStackTrace();
 		}
 		return null;
@@ -1,22 +1,25 @@
 package SyntaxUtils;
 
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collection;
 import java.util.Collections;
+import java.util.Comparator;
 import java.util.HashMap;
 import java.util.HashSet;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
 import java.util.Stack;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
 
 import jigsaw.syntax.Lexicon;
-import jigsaw.util.Triple;
 import LinguaView.syntax.CCGInternalNode;
 import LinguaView.syntax.CCGNode;
 import LinguaView.syntax.CCGTerminalNode;
-import fig.basic.Pair;
-import fig.basic.PriorityQueue;
+import LinguaView.syntax.SlotTable;
 /**
  * 
  * @author c.wang
@@ -25,7 +28,37 @@ public class CCGChart {
 	private static final int DEFAULT_BEAM_SIZE = 16;
 	private static final int MAX_RE_SEARCH = 2;
 	private static final int MAX_NUM_OF_SUPERTAG = 4;
+	private static final long NO_SIGNATURE = -1;
+	private static final long MAX_SIGNATURE_END = (1L << 20) - 1;
+	private static final long MAX_SIGNATURE_CATEGORY = 1L << 22;
 	public static boolean APPROX_PRUNE = true;
+	/** use 64-bit hashed features (HashedFeatureSet) instead of string features */
+	public static boolean HASHED_FEATURES = false;
+	/** number of threads used to expand the states of the beam, 1 for sequential expansion */
+	public static int NUM_THREADS = 1;
+	/**
+	 * with APPROX_PRUNE, keep the states merged into an equivalent state of
+	 * the beam as its backpointers, so that getKBestResults could extract
+	 * other derivations from the packed forest
+	 */
+	public static boolean PACKED_FOREST = false;
+	/**
+	 * if positive, a word is only shifted with the supertags whose lexicon
+	 * counts are at least SUPERTAG_BETA times the best one of the word
+	 */
+	public static double SUPERTAG_BETA = 0;
+	/**
+	 * shift each word with its MAX_NUM_OF_SUPERTAG best supertags by the
+	 * lexicon counts, instead of limiting the shifts of each step
+	 */
+	public static boolean PER_POSITION_SUPERTAG_BEAM = false;
+	/** collect the counters and timers of all the charts if not null */
+	public static ParseMetrics METRICS = null;
+	/*
+	 * fork-join pools by parallelism, never shut down as another chart may
+	 * still be expanding on one when NUM_THREADS is changed
+	 */
+	private static final ConcurrentHashMap<Integer, ForkJoinPool> EXPANSION_POOLS = new ConcurrentHashMap<Integer, ForkJoinPool>();
 	private SentenceForCCGParsing _sent;
 
 	private Lexicon _wordLexicon; // for shift
@@ -34,12 +67,21 @@ public class CCGChart {
 	private PerceptronClassifier _classifier;
 	
 	private String[] _interpretation;
+	// of each queue position, see supertags()
+	private Supertags[] _supertags;
 //	private PatriciaTrie<String, String> _interpretation = new PatriciaTrie<String, String>(StringKeyAnalyzer.CHAR);
 
 	private List<State> _currStates;
 	private List<Action> _goldActions;
-	private PriorityQueue<State> _retainedStates;
-	private List<State> _historyStates;
+	// with APPROX_PRUNE, candidates left out of the beam for a re-search, as
+	// indices into _retainedFrom and _retainedOf, built only when taken
+	private CandidateHeap _retained;
+	private Expansion[] _retainedFrom;
+	private int[] _retainedOf;
+	private int _numOfRetained = 0;
+	// signatures of _currStates and of all the states ever in the beam, for APPROX_PRUNE
+	private LongIntMap _currSignatures;
+	private LongIntMap _historySignatures;
 	
 	private boolean _finish = false;
 	private int _reSearchCount = 0;
@@ -54,10 +96,14 @@ public class CCGChart {
 		_interpretation = interpretation;
 		_grammar = g;
 		_classifier = c;
+		_supertags = new Supertags[s.length()];
 		_currStates = new ArrayList<CCGChart.State>();
 		if (APPROX_PRUNE) {
-			_retainedStates = new PriorityQueue<State>();
-			_historyStates = new ArrayList<CCGChart.State>();
+			_retained = new CandidateHeap(beamSize);
+			_retainedFrom = new Expansion[beamSize];
+			_retainedOf = new int[beamSize];
+			_currSignatures = new LongIntMap();
+			_historySignatures = new LongIntMap();
 		}
 		_beam = beamSize;
 		
@@ -67,20 +113,38 @@ public class CCGChart {
 //			goldActions = getActionSequence(s.goldDerivationTree, _interpretation);
 	}
 
+	/**
+	 * Pack the end of the top node and the category IDs of the top two
+	 * nodes, the second one is 0 if the stack has only one node.
+	 */
+	private static long signature(CCGNode top1, CCGNode top2) {
+		long end = top1.end();
+		long c1 = top1.categoryId();
+		long c2 = top2 == null ? 0 : top2.categoryId() + 1;
+		if (end >= MAX_SIGNATURE_END || c1 >= MAX_SIGNATURE_CATEGORY
+				|| c2 >= MAX_SIGNATURE_CATEGORY)
+			throw new IllegalStateException("too many words or categories for the state signature");
+		return (end << 44) | (c1 << 22) | c2;
+	}
+
 	/* State is designed to support Deep-First-Search. */
 	private class State implements EquivState<State> {
-		private Stack<CCGNode> _stack;
+		private NodeStack _stack;
 		private int _queueIndex; // 0-based, index of the first one in the queue
 		public boolean _gold; // used for early update
 		private double _score;
-		Map<Action, CCGNode> _cache = new HashMap<Action, CCGNode>();
-		Map<Pair<Action, Action>, CCGNode> _cacheU = new HashMap<Pair<Action, Action>, CCGNode>();
+		// see isEquivalent
+		private long _signature = NO_SIGNATURE;
+		// with PACKED_FOREST, the ways this state is reached, the best one first
+		private List<BackPointer> _backPointers = null;
+		// nodes built by preview, shared with the clones until they act
+		NodeCache _cache = null;
 		int _step;
 
 		CCGRule _lastRule = null;
 
 		public State() {
-			_stack = new Stack<CCGNode>();
+			_stack = NodeStack.EMPTY;
 			_queueIndex = 0;
 			_gold = true;
 			_step = 0;
@@ -90,33 +154,86 @@ public class CCGChart {
 			return _queueIndex == _sent.length() && _stack.size() == 1;
 		}
 
-		/** Shallow clone **/
+		/** Shallow clone, the stack is immutable and shared **/
 		@Override
 		public State clone() {
-			Stack<CCGNode> newStack = new Stack<CCGNode>();
-			newStack.addAll(_stack);
-			State s = new State(newStack, _queueIndex, _gold, _step, _score);
+			State s = new State(_stack, _queueIndex, _gold, _step, _score);
 			s.setLastRule(_lastRule);
+			s._cache = _cache;
 			return s;
 		}
 
-		private State(Stack<CCGNode> stk, int queueIndex, boolean gold,
+		private State(NodeStack stk, int queueIndex, boolean gold,
 				int step, double score) {
 			this._stack = stk;
 			this._queueIndex = queueIndex;
 			this._gold = gold;
 			this._step = step;
 			this._score = score;
+			updateSignature();
 		}
 
-		private CCGNode nextNodeToStack(Action action) {
+		/**
+		 * see CCGChart.signature
+		 */
+		private void updateSignature() {
 			int size = _stack.size();
-			if (action.isShiftAction())
+			if (size == 0) {
+				_signature = NO_SIGNATURE;
+				return;
+			}
+			_signature = signature(_stack.peek(), size == 1 ? null : _stack.peek(1));
+		}
+
+		/**
+		 * The signature of the successor by actionB and actionU (may be
+		 * null), from the nodes built by preview, so that the successor is
+		 * only built if they are not cached.
+		 */
+		private long successorSignature(Action actionB, Action actionU) {
+			CCGNode top = _cache == null ? null : _cache.get(actionB, actionU);
+			if (top == null)
+				return generateNewState(actionB, actionU)._signature;
+			NodeStack rest = _stack;
+			if (actionB.isBinaryReduceAction())
+				rest = rest.pop().pop();
+			else if (actionB.isUnaryReduceAction())
+				rest = rest.pop();
+			return signature(top, rest.size() == 0 ? null : rest.peek());
+		}
+
+		/**
+		 * Record that this state is reached from prev by the actions with score.
+		 */
+		private void pointTo(State prev, Action actionB, Action actionU, double score) {
+			if (_backPointers == null)
+				_backPointers = new ArrayList<BackPointer>(1);
+			_backPointers.add(new BackPointer(prev, actionB, actionU, score - prev.score()));
+		}
+
+		private CCGNode nextNodeToStack(Action action) {
+			if (action.isShiftAction()) {
+				// the terminals of the candidate supertags are shared by all the
+				// states, there are none without a lexicon, as in goldParse
+				CCGTerminalNode cn = _wordLexicon == null ? null : supertags(_queueIndex).nodeOf(action);
+				if (cn != null)
+					return cn;
 				return new CCGTerminalNode(_sent.word(_queueIndex),
 						_sent.pos(_queueIndex), action._tag, _sent.additionalInfo(_queueIndex), _queueIndex); // TODO
+			}
+			ParseMetrics metrics = METRICS;
+			if (metrics == null)
+				return applyRule(action);
+			long start = System.nanoTime();
+			CCGNode cn = applyRule(action);
+			metrics.time(ParseMetrics.Timer.RULES, System.nanoTime() - start);
+			return cn;
+		}
+
+		private CCGNode applyRule(Action action) {
 			if (action.isBinaryReduceAction()) {
-				CCGNode rChild = _stack.get(size - 1);
-				CCGNode lChild = _stack.get(size - 2);
+				CCGNode rChild = _stack.peek(0);
+				CCGNode lChild = _stack.peek(1);
 //				if (action.bRule.type != CCGBinaryRule.RuleType.unknown){
 					CCGInternalNode parent = CCGInternalNode.generateNewNode(action._bRule, lChild, rChild);
 					return parent;
@@ -125,7 +242,7 @@ public class CCGChart {
 			}
 			if (action.isUnaryReduceAction()) {
 
-				CCGNode child = _stack.get(size - 1);
+				CCGNode child = _stack.peek();
 				// CCGUnaryRule uRule = _grammar.getUnaryRule(action._ordinal);
 //				if (action.uRule.type != CCGUnaryRule.RuleType.unknown){
 				CCGInternalNode newNode = CCGInternalNode.generateNewNode(action._uRule, child);
@@ -147,34 +264,22 @@ public class CCGChart {
 		 * @return
 		 */
 		private State preview(Action action) {
-			int windows = _featureExtractor.windows();
-			State pre = new State();
-			pre._step = _step;
-			pre._queueIndex = _queueIndex;
-			pre._gold = _gold;
-			int size = _stack.size();
-			
-			if (action.isShiftAction())
-				--windows;
-			else if (action.isBinaryReduceAction())
-				++windows;
-			
-			int newSize = size < windows ? size : windows;
-			for (int i = size - newSize; i < size; ++i)
-				pre._stack.push(_stack.get(i));
+			// the stack is shared, not cut to the feature windows
+			State pre = new State(_stack, _queueIndex, _gold, _step, 0);
 
-			CCGNode cn = _cache.get(action);
+			if (_cache == null)
+				_cache = new NodeCache();
+			CCGNode cn = _cache.get(action, null);
 			if (cn == null) {
 				cn = nextNodeToStack(action); // should always do this
 				if (cn == null)
 					return null;
-				_cache.put(action, cn);
+				_cache.put(action, null, cn);
 			}
 
 			if (action.isShiftAction() || action.isBinaryReduceAction() || action.isUnaryReduceAction())
-				return pre.generateNewState(action);
-			else
-				return pre;
+				pre.act(action, cn);
+			return pre;
 		}
 
 		/**
@@ -191,17 +296,16 @@ public class CCGChart {
 			State pre = preview(actionB);
 			if (pre == null)
 				return null;
-			CCGNode cn = _cacheU
-					.get(new Pair<Action, Action>(actionB, actionU));
-			if (cn == null)
+			CCGNode cn = _cache.get(actionB, actionU);
+			if (cn == null) {
 				cn = pre.nextNodeToStack(actionU);
-			if (cn == null)
-				return null;
-			pre._stack.pop();
-			pre._stack.push(cn);
+				if (cn == null)
+					return null;
+				_cache.put(actionB, actionU, cn);
+			}
+			pre._stack = pre._stack.pop().push(cn);
+			pre.updateSignature();
 			pre.setLastRule(actionU._uRule);
-
-			_cacheU.put(new Pair<Action, Action>(actionB, actionU), cn);
 			return pre;
 		}
 
@@ -218,9 +322,11 @@ public class CCGChart {
 		}
 
 		private boolean act(Action actionB, Action actionU) {
+			// the cache is dropped by the first act
+			NodeCache cache = _cache != null ? _cache : NodeCache.EMPTY;
 			CCGNode top;
 			if (actionU == null) {
-				top = _cache.get(actionB);
+				top = cache.get(actionB, null);
 				if (top == null)
 					top = nextNodeToStack(actionB);
 				if (top == null)
@@ -229,7 +335,7 @@ public class CCGChart {
 			} else {
 				if (!actionU.isUnaryReduceAction())
 					throw new IllegalArgumentException("second argument of act");
-				CCGNode topB = _cache.get(actionB);
+				CCGNode topB = cache.get(actionB, null);
 				if (topB == null) {
 					topB = nextNodeToStack(actionB);
 					if (topB == null)
@@ -238,7 +344,7 @@ public class CCGChart {
 				if (!act(actionB, topB))
 					return false;
 
-				top = _cacheU.get(new Pair<Action, Action>(actionB, actionU));
+				top = cache.get(actionB, actionU);
 				if (top == null) {
 					top = CCGInternalNode.generateNewNode(actionU._uRule, topB);
 					if (top == null)
@@ -252,7 +358,7 @@ public class CCGChart {
 		private boolean act(Action action) {
 			CCGNode top = null;
 			if (_cache != null)
-				top = _cache.get(action);
+				top = _cache.get(action, null);
 			if (top == null)
 				top = nextNodeToStack(action);
 			if (top == null)
@@ -274,23 +380,20 @@ public class CCGChart {
 			if (top == null)
 				return false;
 			if (action.isShiftAction()) {
-				_stack.push(top);
+				_stack = _stack.push(top);
 				++_queueIndex;
 				_lastRule = null;
 			} else if (action.isBinaryReduceAction()) {
-				_stack.pop();
-				_stack.pop();
-				_stack.push(top);
+				_stack = _stack.pop().pop().push(top);
 				_lastRule = action._bRule;
 			} else if (action.isUnaryReduceAction()) {
-				_stack.pop();
-				_stack.push(top);
+				_stack = _stack.pop().push(top);
 				_lastRule = action._uRule;
 			}
-			if (_cache != null)
-				_cache.clear();
-			if (_cacheU != null)
-				_cacheU.clear();
+			updateSignature();
+			// the cached nodes are built on the old stack, and still used by
+			// the other clones
+			_cache = null;
 
 			if (_gold && !isGoldAction(action))
 				_gold = false;
@@ -301,15 +404,17 @@ public class CCGChart {
 		@SuppressWarnings("unchecked")
 		public CCGParseResult collectResult() {
 			CCGParseResult res = new CCGParseResult();
-			res.nodes = new ArrayList<CCGNode>(_stack);
+			res.nodes = _stack.toList();
 			res.dependency = new Set[_sent.length()][];
 			for (CCGNode cn : _stack) {
+				SlotTable slots = cn.slots();
 				for (int i = cn.start(); i <= cn.end(); ++i) {
-					res.dependency[i] = new Set[cn.slots[i - cn.start()].length];
-					for (int j = 0; j < res.dependency[i].length; ++j)
-						res.dependency[i][j] = cn.slots[i - cn.start()][j] == null ? null
-								: new HashSet<Integer>(
-										cn.slots[i - cn.start()][j]);
+					res.dependency[i] = new Set[slots.width(i - cn.start())];
+					for (int j = 0; j < res.dependency[i].length; ++j) {
+						Set<Integer> heads = slots.get(i - cn.start(), j);
+						res.dependency[i][j] = heads == null ? null
+								: new HashSet<Integer>(heads);
+					}
 				}
 			}
 //			res.actionSequence = getActionSequence(_stack);
@@ -344,7 +449,9 @@ public class CCGChart {
 		}
 
 		/**
-		 * Approximate pruning
+		 * Approximate pruning: two states are equivalent if their top nodes
+		 * end at the same word, and the categories of the top two nodes are
+		 * the same (or both stacks have one node of the same category).
 		 * 
 		 * @param another
 		 * @return
@@ -352,90 +459,245 @@ public class CCGChart {
 		 */
 		@Override
 		public boolean isEquivalent(State another) {
-			if (this._stack.size() >= 3 && another._stack.size() >= 3) {
-				CCGNode lastCcgNodeOfFirst = this._stack.peek();
-				CCGNode last2CcgNodeOfFirst = this._stack.elementAt(this._stack.size()-2);
-				CCGNode last3CcgNodeOfFirst = this._stack.elementAt(this._stack.size()-3);
-
-				CCGNode lastCcgNodeOfSecond = another._stack.peek();
-				CCGNode last2CcgNodeOfSecond = another._stack.elementAt(another._stack.size()-2);
-				CCGNode last3CcgNodeOfSecond = another._stack.elementAt(another._stack.size()-3);
-
-				if (lastCcgNodeOfFirst.end() == lastCcgNodeOfSecond.end()
-						&& last2CcgNodeOfFirst.categoryToString().equals(last2CcgNodeOfSecond.categoryToString())
-						&& last3CcgNodeOfFirst.categoryToString().equals(last3CcgNodeOfSecond.categoryToString())
-						&& lastCcgNodeOfFirst.categoryToString().equals(lastCcgNodeOfSecond.categoryToString()))
-					return true;
-			}
-			if (this._stack.size() >= 2 && another._stack.size() >= 2) {
-				CCGNode lastCcgNodeOfFirst = this._stack.peek();
-				CCGNode last2CcgNodeOfFirst = this._stack.elementAt(this._stack.size()-2);
-				CCGNode lastCcgNodeOfSecond = another._stack.peek();
-				CCGNode last2CcgNodeOfSecond = another._stack.elementAt(another._stack.size()-2);
-				if (lastCcgNodeOfFirst.end() == lastCcgNodeOfSecond.end()
-						&& last2CcgNodeOfFirst.categoryToString().equals(last2CcgNodeOfSecond.categoryToString())
-//						&& lastCcgNodeOfFirst.start() == lastCcgNodeOfSecond.start() 
-						&& lastCcgNodeOfFirst.categoryToString().equals(lastCcgNodeOfSecond.categoryToString()))
-					return true;
-			} else if (this._stack.size() == 1 && another._stack.size() == 1) {
-				CCGNode lastCcgNodeOfFirst = this._stack.peek();
-				CCGNode lastCcgNodeOfSecond = another._stack.peek();
-				if (lastCcgNodeOfFirst.end() == lastCcgNodeOfSecond.end()
-//						&& lastCcgNodeOfFirst.start() == lastCcgNodeOfSecond.start() 
-						&& lastCcgNodeOfFirst.categoryToString().equals(lastCcgNodeOfSecond.categoryToString()))
-					return true;				
-			}
-			return false;
+			return _signature != NO_SIGNATURE && _signature == another._signature;
 		}
 	}
 
 
-	private void proceedOneStep() {
-		PriorityQueue<Triple<State, Action, Action>> pq = new PriorityQueue<Triple<State, Action, Action>>();
-		for (State state : _currStates) {
-			List<Action> actions = new ArrayList<Action>();
-			for (Action action : getShiftActions(state))
-				actions.add(action);
-			for (Action action : getReduceActions(state))
-				actions.add(action);
-
-			for (Action action : actions) {
-				State preview = state.preview(action);
-				// double score = evaluateConfiguration(state, action);
-				// if (score != Double.NEGATIVE_INFINITY) {
-				if (preview != null) {
-					double score = evaluateState(preview);
-					pq.add(new Triple<State, Action, Action>(state, action,
-							null), score + state.score());
-					for (Action actionU : getUnaryActions(preview)) {
-						// double scoreU = evaluateConfiguration(state, action,
-						// actionU);
-						// if (scoreU != Double.NEGATIVE_INFINITY)
-						preview = state.preview(action, actionU);
-						if (preview != null) {
-							double scoreU = evaluateState(preview);
-							pq.add(new Triple<State, Action, Action>(state,
-									action, actionU),
-									score + scoreU + state.score());
-						}
+	/**
+	 * Nodes built by State.preview(), by the IDs of the actions, so that the
+	 * successors of the state reuse them instead of building them again.
+	 */
+	private static class NodeCache {
+		static final NodeCache EMPTY = new NodeCache();
+
+		private final LongIntMap _index = new LongIntMap();
+		private final List<CCGNode> _nodes = new ArrayList<CCGNode>();
+
+		private static long key(Action actionB, Action actionU) {
+			return actionU == null ? actionB.id() : ((long) (actionU.id() + 1) << 32) | actionB.id();
+		}
+
+		/**
+		 * @return the node of actionB followed by actionU (null if none), or null
+		 */
+		CCGNode get(Action actionB, Action actionU) {
+			int i = _index.get(key(actionB, actionU));
+			return i == 0 ? null : _nodes.get(i - 1);
+		}
+
+		void put(Action actionB, Action actionU, CCGNode cn) {
+			_nodes.add(cn);
+			_index.put(key(actionB, actionU), _nodes.size());
+		}
+	}
+
+	/**
+	 * An incoming edge of a state in the packed forest.
+	 */
+	private class BackPointer {
+		State prev;
+		Action actionB;
+		Action actionU;
+		double delta; // score of the state minus that of prev
+
+		private BackPointer(State prev, Action actionB, Action actionU, double delta) {
+			this.prev = prev;
+			this.actionB = actionB;
+			this.actionU = actionU;
+			this.delta = delta;
+		}
+	}
+
+	/**
+	 * A derivation of a state: its rank-th best derivation through
+	 * _backPointers[edge], or the state itself if edge is -1.
+	 */
+	private class Derivation {
+		State state;
+		int edge;
+		int rank;
+		double score;
+
+		private Derivation(State state, int edge, int rank, double score) {
+			this.state = state;
+			this.edge = edge;
+			this.rank = rank;
+			this.score = score;
+		}
+	}
+
+	/**
+	 * Successors of one state, kept in the order they are generated so that
+	 * they could be merged into the agenda deterministically.
+	 */
+	private class Expansion {
+		State state;
+		// candidate k is (state, actionsB[k], actionsU[k]), actionsU[k] may be null
+		Action[] actionsB = new Action[8];
+		Action[] actionsU = new Action[8];
+		double[] scores = new double[8];
+		int size = 0;
+
+		private Expansion(State state) {
+			this.state = state;
+		}
+
+		private void add(Action actionB, Action actionU, double score) {
+			if (size == scores.length) {
+				actionsB = Arrays.copyOf(actionsB, size * 2);
+				actionsU = Arrays.copyOf(actionsU, size * 2);
+				scores = Arrays.copyOf(scores, size * 2);
+			}
+			actionsB[size] = actionB;
+			actionsU[size] = actionU;
+			scores[size] = score;
+			++size;
+		}
+	}
+
+	/**
+	 * Expand and score all successors of a state.
+	 * Only the state itself (and its preview cache) is modified, so different
+	 * states could be expanded concurrently.
+	 * @param state
+	 * @return
+	 */
+	private Expansion expand(State state) {
+		Expansion expansion = new Expansion(state);
+		List<Action> actions = new ArrayList<Action>();
+		for (Action action : getShiftActions(state))
+			actions.add(action);
+		for (Action action : getReduceActions(state))
+			actions.add(action);
+
+		for (Action action : actions) {
+			State preview = state.preview(action);
+			// double score = evaluateConfiguration(state, action);
+			// if (score != Double.NEGATIVE_INFINITY) {
+			if (preview != null) {
+				double score = evaluateState(preview);
+				expansion.add(action, null, score + state.score());
+				for (Action actionU : getUnaryActions(preview)) {
+					// double scoreU = evaluateConfiguration(state, action,
+					// actionU);
+					// if (scoreU != Double.NEGATIVE_INFINITY)
+					preview = state.preview(action, actionU);
+					if (preview != null) {
+						double scoreU = evaluateState(preview);
+						expansion.add(action, actionU, score + scoreU + state.score());
 					}
 				}
 			}
 		}
+		return expansion;
+	}
+
+	/**
+	 * Fork-join task expanding _currStates[from, to) into expansions[from, to).
+	 */
+	@SuppressWarnings("serial")
+	private class ExpandTask extends RecursiveAction {
+		private List<State> _states;
+		private Expansion[] _expansions;
+		private int _from, _to;
+
+		private ExpandTask(List<State> states, Expansion[] expansions, int from, int to) {
+			_states = states;
+			_expansions = expansions;
+			_from = from;
+			_to = to;
+		}
+
+		@Override
+		protected void compute() {
+			if (_to - _from == 1) {
+				_expansions[_from] = expand(_states.get(_from));
+				return;
+			}
+			int mid = (_from + _to) >>> 1;
+			invokeAll(new ExpandTask(_states, _expansions, _from, mid),
+					new ExpandTask(_states, _expansions, mid, _to));
+		}
+	}
+
+	private static ForkJoinPool expansionPool(int threads) {
+		ForkJoinPool pool = EXPANSION_POOLS.get(threads);
+		if (pool == null) {
+			pool = new ForkJoinPool(threads);
+			ForkJoinPool existing = EXPANSION_POOLS.putIfAbsent(threads, pool);
+			if (existing != null) {
+				// nothing was submitted to the one built here
+				pool.shutdown();
+				pool = existing;
+			}
+		}
+		return pool;
+	}
+
+	/**
+	 * Expand every state of the beam, in parallel if NUM_THREADS > 1.
+	 * The result is ordered as _currStates whatever the number of threads is.
+	 * @return
+	 */
+	private Expansion[] expandAll() {
+		Expansion[] expansions = new Expansion[_currStates.size()];
+		int threads = NUM_THREADS;
+		if (threads > 1 && expansions.length > 1) {
+			expansionPool(threads).invoke(new ExpandTask(_currStates, expansions, 0, expansions.length));
+		} else {
+			for (int i = 0; i < expansions.length; ++i)
+				expansions[i] = expand(_currStates.get(i));
+		}
+		return expansions;
+	}
+
+	private void proceedOneStep() {
+		Expansion[] expansions = expandAll();
+		int numOfCandidates = 0;
+		for (Expansion expansion : expansions)
+			numOfCandidates += expansion.size;
+		ParseMetrics metrics = METRICS;
+		if (metrics != null) {
+			metrics.increment(ParseMetrics.Counter.STEPS);
+			metrics.add(ParseMetrics.Counter.STATES_EXPANDED, expansions.length);
+			metrics.add(ParseMetrics.Counter.CANDIDATES, numOfCandidates);
+			metrics.record(ParseMetrics.Distribution.STATES_PER_STEP, expansions.length);
+			metrics.record(ParseMetrics.Distribution.CANDIDATES_PER_STEP, numOfCandidates);
+		}
+		// candidate c is the (c - first[owner[c]])-th one of expansions[owner[c]],
+		// numbered in the order of _currStates, so that ties are broken as in sequential expansion
+		int[] owner = new int[numOfCandidates];
+		int[] first = new int[expansions.length];
+		int c = 0;
+		for (int e = 0; e < expansions.length; ++e) {
+			first[e] = c;
+			for (int i = 0; i < expansions[e].size; ++i)
+				owner[c++] = e;
+		}
 
     /** Modified to implement diversified version of beam search. (wsun) **/
-		if (pq.size() == 0) {
+		if (numOfCandidates == 0) {
 			// No good state is generated. That is all old states fails.
 			// This case happens only while testing, since after every step, isToEarlyUpdate() is called.
 			// When pq is empty. _currStates is not updated.
 			if (APPROX_PRUNE && ++_reSearchCount <= MAX_RE_SEARCH) {
-				if (!_retainedStates.isEmpty()) {
+				if (_retained.hasNext()) {
+					if (metrics != null)
+						metrics.increment(ParseMetrics.Counter.RE_SEARCHES);
 					_currStates = new ArrayList<State>();
-					while (_retainedStates.hasNext() && _currStates.size() < _beam) {
-						State retainedState = _retainedStates.next();
-						if (!pruneThisState(_currStates, retainedState)) {
+					_currSignatures.clear();
+					while (_retained.hasNext() && _currStates.size() < _beam) {
+						double score = _retained.getPriority();
+						int r = _retained.next();
+						Expansion expansion = _retainedFrom[r];
+						int k = _retainedOf[r];
+						_retainedFrom[r] = null;
+						if (!pruneThisState(_currSignatures,
+								expansion.state.successorSignature(expansion.actionsB[k], expansion.actionsU[k]))) {
+							State retainedState = successor(expansion, k, score);
 							_currStates.add(retainedState);
-							_historyStates.add(retainedState);
+							keepSignature(retainedState);
 						}
 					}
 				} else {
@@ -447,34 +709,71 @@ public class CCGChart {
 		} else { 
 			_currStates = null;
 			_currStates = new ArrayList<CCGChart.State>();
+			if (APPROX_PRUNE)
+				_currSignatures.clear();
 	
 			int beamSize = _beam > 0 ? _beam : DEFAULT_BEAM_SIZE;
+			// the beam and the candidates a re-search could take, all of
+			// them with PACKED_FOREST as any could be packed into the beam
+			int maxRetained = APPROX_PRUNE ? MAX_RE_SEARCH * beamSize : 0;
+			int k = PACKED_FOREST && APPROX_PRUNE ? numOfCandidates : beamSize + maxRetained;
+			TopCandidates top = new TopCandidates(Math.min(k, numOfCandidates));
+			int[] ids = new int[top.capacity()];
+			double[] scores = new double[ids.length];
 			int numOfShift = 0;
-			while (pq.hasNext()) { // && i < beamSize) {
-				double score = pq.getPriority();
-				Triple<State, Action, Action> pair = pq.next();
-				if (pair.second().isShiftAction()) { 
-					numOfShift ++;
-					if (numOfShift >= MAX_NUM_OF_SUPERTAG)
-						continue;
+			int numOfRetained = 0;
+			int numOfTaken = 0;
+			// the last candidate taken, the next k best ones are after it
+			int lastId = -1;
+			double lastScore = Double.POSITIVE_INFINITY;
+			// the k best, then the k next best ones until the beam is full
+			while (numOfTaken < numOfCandidates && _currStates.size() < beamSize) {
+				c = 0;
+				for (Expansion expansion : expansions) {
+					for (int i = 0; i < expansion.size; ++i, ++c) {
+						if (TopCandidates.isWorse(c, expansion.scores[i], lastId, lastScore))
+							top.add(c, expansion.scores[i]);
+					}
 				}
-				State predictorState = pair.first();
-				// Action action = pair.second();
-				State newState = predictorState.generateNewState(pair.second(), pair.third());
-				newState.score(score);
-				// newState.updateScore(score);
-				if (!APPROX_PRUNE) {
-					_currStates.add(newState);
-	
-					if (_currStates.size() >= beamSize) 
-						break;
-				} else {
-					if (_currStates.size() >= beamSize || pruneThisState(_currStates, newState)) {
-						if (!pruneThisState(_historyStates, newState))
-							_retainedStates.add(newState, score);
+				int n = top.drain(ids, scores);
+				numOfTaken += n;
+				lastId = ids[n - 1];
+				lastScore = scores[n - 1];
+				for (int r = 0; r < n; ++r) {
+					double score = scores[r];
+					int next = ids[r];
+					Expansion expansion = expansions[owner[next]];
+					int i = next - first[owner[next]];
+					if (!PER_POSITION_SUPERTAG_BEAM && expansion.actionsB[i].isShiftAction()) { 
+						numOfShift ++;
+						if (numOfShift >= MAX_NUM_OF_SUPERTAG)
+							continue;
+					}
+					if (!APPROX_PRUNE) {
+						_currStates.add(successor(expansion, i, score));
+						if (_currStates.size() >= beamSize) 
+							break;
+						continue;
+					}
+					// a successor is only built if it enters the beam or is packed
+					long signature = expansion.state.successorSignature(expansion.actionsB[i], expansion.actionsU[i]);
+					if (_currStates.size() >= beamSize || pruneThisState(_currSignatures, signature)) {
+						if (metrics != null && _currStates.size() < beamSize)
+							metrics.increment(ParseMetrics.Counter.PRUNED_EQUIVALENT);
+						if (PACKED_FOREST && pack(successor(expansion, i, score))) {
+							// merged into the beam, and never retained as it is in the history
+							if (metrics != null)
+								metrics.increment(ParseMetrics.Counter.PACKED);
+						} else if (numOfRetained < maxRetained && !pruneThisState(_historySignatures, signature)) {
+							retain(expansion, i, score);
+							++numOfRetained;
+							if (metrics != null)
+								metrics.increment(ParseMetrics.Counter.RETAINED);
+						}
 					} else {
+						State newState = successor(expansion, i, score);
 						_currStates.add(newState);
-						_historyStates.add(newState);
+						keepSignature(newState);
 					}
 				}
 			}
@@ -499,6 +798,15 @@ public class CCGChart {
 		return fs;
 	}
 
+	private HashedFeatureSet collectHashedFeats(State init, List<Action> actionSequence) {
+		HashedFeatureSet fs = new HashedFeatureSet();
+		for (Action act : actionSequence) {
+			init.act(act);
+			fs.accumulate(_featureExtractor.getHashedFeatures(init));
+		}
+		return fs;
+	}
+
 	@SuppressWarnings("unused")
 	private FeatureSet collectFeats(List<Action> actionSequence) {
 		return collectFeats(new State(), actionSequence);
@@ -549,17 +857,62 @@ public class CCGChart {
 
 	/**
 	 * 
-	 * @param states
-	 * @param newState
-	 * @return
+	 * @param signatures of the states to compare with
+	 * @param signature of the new state
+	 * @return if the new state is equivalent to one of the states
 	 * @author wsun
 	 */
-	private boolean pruneThisState(List<State> states, State newState) {
-		for (State inState : states) {
-			if (inState.isEquivalent(newState))
-				return true;
+	private boolean pruneThisState(LongIntMap signatures, long signature) {
+		return signature != NO_SIGNATURE && signatures.containsKey(signature);
+	}
+
+	/**
+	 * Build the k-th successor of expansion with its score.
+	 */
+	private State successor(Expansion expansion, int k, double score) {
+		// a successor is built only when it is taken
+		State newState = expansion.state.generateNewState(expansion.actionsB[k], expansion.actionsU[k]);
+		newState.score(score);
+		if (PACKED_FOREST)
+			newState.pointTo(expansion.state, expansion.actionsB[k], expansion.actionsU[k], score);
+		return newState;
+	}
+
+	/**
+	 * Keep the k-th successor of expansion for a re-search without building it.
+	 */
+	private void retain(Expansion expansion, int k, double score) {
+		if (_numOfRetained == _retainedFrom.length) {
+			_retainedFrom = Arrays.copyOf(_retainedFrom, _numOfRetained * 2 + 1);
+			_retainedOf = Arrays.copyOf(_retainedOf, _numOfRetained * 2 + 1);
 		}
-		return false;
+		_retainedFrom[_numOfRetained] = expansion;
+		_retainedOf[_numOfRetained] = k;
+		_retained.add(_numOfRetained++, score);
+	}
+
+	/**
+	 * _currSignatures maps to the position of the state in _currStates + 1
+	 */
+	private void keepSignature(State s) {
+		if (s._signature == NO_SIGNATURE)
+			return;
+		_currSignatures.put(s._signature, _currStates.size());
+		_historySignatures.put(s._signature, 1);
+	}
+
+	/**
+	 * Merge newState into the equivalent state of the beam, if any.
+	 * @return if newState is merged
+	 */
+	private boolean pack(State newState) {
+		if (newState._signature == NO_SIGNATURE || newState._backPointers == null)
+			return false;
+		int i = _currSignatures.get(newState._signature);
+		if (i == 0 || _currStates.get(i - 1)._backPointers == null)
+			return false;
+		_currStates.get(i - 1)._backPointers.addAll(newState._backPointers);
+		return true;
 	}
 
 	private boolean isToEarlyUpdate() { // TODO spurious ambiguity
@@ -593,24 +946,117 @@ public class CCGChart {
 	private List<Action> getShiftActions(State s) {
 		if (s._queueIndex >= _sent.length())
 			return Collections.<Action> emptyList();
+		return Arrays.asList(supertags(s._queueIndex).actions);
+	}
+
+	/**
+	 * The shift actions of a queue position and the terminals they push,
+	 * which only depend on the word, so they are built once per sentence.
+	 */
+	private static class Supertags {
+		final Action[] actions;
+		final CCGTerminalNode[] nodes;
+
+		Supertags(Action[] actions, CCGTerminalNode[] nodes) {
+			this.actions = actions;
+			this.nodes = nodes;
+		}
+
+		/**
+		 * @return the terminal of action, or null if action is not one of them
+		 */
+		CCGTerminalNode nodeOf(Action action) {
+			for (int i = 0; i < actions.length; ++i) {
+				if (actions[i] == action)
+					return nodes[i];
+			}
+			return null;
+		}
+	}
+
+	private Supertags supertags(int index) {
+		Supertags sup = _supertags[index];
+		if (sup == null) {
+			// a race only builds them again, a state holding the other
+			// actions then builds its own terminals
+			sup = buildSupertags(index);
+			_supertags[index] = sup;
+		}
+		return sup;
+	}
+
+	private Supertags buildSupertags(int index) {
 		// String next = _sent.word(s.queueIndex);
-		Set<Integer> candidates = _wordLexicon.lookup(_sent.word(s._queueIndex)
-				.toLowerCase());
-		if (candidates == null || candidates.size() == 0)
-			candidates = _posLexicon.lookup(_sent.pos(s._queueIndex));
+		Lexicon lexicon = _wordLexicon;
+		String word = _sent.lowerWord(index);
+		Set<Integer> candidates = lexicon.lookup(word);
+		if (candidates == null || candidates.size() == 0) {
+			lexicon = _posLexicon;
+			word = _sent.pos(index);
+			candidates = lexicon.lookup(word);
+		}
 		if (candidates == null || candidates.size() == 0){
 			System.err.println("unknown words and pos");
-			return Collections.emptyList();
+			if (METRICS != null)
+				METRICS.increment(ParseMetrics.Counter.UNKNOWN_WORDS);
+			return new Supertags(new Action[0], new CCGTerminalNode[0]);
 		}
-		List<Action> res = new ArrayList<Action>();
-		for (int c : candidates) {
+		int[] tags = new int[candidates.size()];
+		int n = 0;
+		for (int c : candidates)
+			tags[n++] = c;
+		if (SUPERTAG_BETA > 0 || PER_POSITION_SUPERTAG_BEAM)
+			n = pruneSupertags(lexicon, word, tags);
+		Action[] actions = new Action[n];
+		CCGTerminalNode[] nodes = new CCGTerminalNode[n];
+		for (int i = 0; i < n; ++i) {
 //			String cat = _wordLexicon.tag(c);
 //			if (cat == null)
 //				System.out.println();
-			String interpret = _interpretation[c];
-			res.add(Action.getShiftAction(interpret));
+			actions[i] = Action.getShiftAction(_interpretation[tags[i]]);
+			nodes[i] = new CCGTerminalNode(_sent.word(index), _sent.pos(index), actions[i]._tag,
+					_sent.additionalInfo(index), index);
 		}
-		return res;
+		return new Supertags(actions, nodes);
+	}
+
+	/**
+	 * Keep the supertags of word within SUPERTAG_BETA of the best lexicon
+	 * count, and the MAX_NUM_OF_SUPERTAG best ones with
+	 * PER_POSITION_SUPERTAG_BEAM. The kept ones stay in their order at the
+	 * head of tags.
+	 * @return the number of kept supertags
+	 */
+	private int pruneSupertags(Lexicon lexicon, String word, int[] tags) {
+		final int[] counts = new int[tags.length];
+		Integer[] order = new Integer[tags.length];
+		int best = 0;
+		for (int i = 0; i < tags.length; ++i) {
+			counts[i] = lexicon.getWordTagCount(word, tags[i]);
+			best = Math.max(best, counts[i]);
+			order[i] = i;
+		}
+		// stable, the ties keep the lexicon order
+		Arrays.sort(order, new Comparator<Integer>() {
+			@Override
+			public int compare(Integer i, Integer j) {
+				return counts[j] - counts[i];
+			}
+		});
+		boolean[] keep = new boolean[tags.length];
+		for (int r = 0; r < order.length; ++r) {
+			if (PER_POSITION_SUPERTAG_BEAM && r >= MAX_NUM_OF_SUPERTAG)
+				break;
+			if (counts[order[r]] < SUPERTAG_BETA * best)
+				break;
+			keep[order[r]] = true;
+		}
+		int n = 0;
+		for (int i = 0; i < tags.length; ++i) {
+			if (keep[i])
+				tags[n++] = tags[i];
+		}
+		return n;
 	}
 
 	private List<Action> getReduceActions(State s) {
@@ -621,19 +1067,15 @@ public class CCGChart {
 		int length = s._stack.size();
 		if (length < 2)
 			return Collections.emptyList();
-		CCGNode left = s._stack.get(length - 2);
-		CCGNode right = s._stack.get(length - 1);
-		String lLabel = left.categoryToString();
-		String rLabel = right.categoryToString();
-		Set<CCGBinaryRule> candidate = _grammar.lookup(lLabel, rLabel);
+		CCGNode left = s._stack.peek(1);
+		CCGNode right = s._stack.peek(0);
+		CCGBinaryRule[] candidate = _grammar.lookup(left.categoryId(), right.categoryId());
 		if (candidate == null){
 			CCGBinaryRule tryRule = CCGBinaryRule.tryAllRules(left.category(), right.category());
 			if (tryRule == null)
 				return Collections.emptyList();
-			else{
-				candidate = new HashSet<CCGBinaryRule>();
-				candidate.add(tryRule);
-			}
+			else
+				candidate = new CCGBinaryRule[] { tryRule };
 		}
 
 		List<Action> actions = new ArrayList<Action>();
@@ -648,9 +1090,8 @@ public class CCGChart {
 		int length = s._stack.size();
 		if (length == 0)
 			return Collections.emptyList();
-		CCGNode top = s._stack.get(length - 1);
-		String label = top.categoryToString().toString();
-		Set<CCGUnaryRule> candidate = _grammar.lookup(label);
+		CCGNode top = s._stack.peek();
+		CCGUnaryRule[] candidate = _grammar.lookup(top.categoryId());
 		if (candidate == null)
 			return Collections.emptyList();
 
@@ -663,25 +1104,66 @@ public class CCGChart {
 	}
 
 	private double evaluateState(State s) {
+		ParseMetrics metrics = METRICS;
+		if (metrics != null)
+			return evaluateState(s, metrics);
+		if (HASHED_FEATURES)
+			return _classifier.score(_featureExtractor.getHashedFeatures(s));
 		FeatureSet feats = _featureExtractor.getFeatures(s);
 		return _classifier.score(feats);
 	}
 
+	/**
+	 * Same as evaluateState(s), timing the feature extraction and the scoring.
+	 */
+	private double evaluateState(State s, ParseMetrics metrics) {
+		long start = System.nanoTime();
+		double score;
+		if (HASHED_FEATURES) {
+			HashedFeatureSet feats = _featureExtractor.getHashedFeatures(s);
+			long extracted = System.nanoTime();
+			score = _classifier.score(feats);
+			metrics.time(ParseMetrics.Timer.FEATURES, extracted - start);
+			metrics.time(ParseMetrics.Timer.SCORING, System.nanoTime() - extracted);
+		} else {
+			FeatureSet feats = _featureExtractor.getFeatures(s);
+			long extracted = System.nanoTime();
+			score = _classifier.score(feats);
+			metrics.time(ParseMetrics.Timer.FEATURES, extracted - start);
+			metrics.time(ParseMetrics.Timer.SCORING, System.nanoTime() - extracted);
+		}
+		return score;
+	}
+
 	/**
 	 * Parse for training. Stop as earlier as possible, and update parameters
 	 * asap. All intermediate results for parameter updating is record.
 	 */
 	public void parse(boolean earlyUpdate) {
+		ParseMetrics metrics = METRICS;
+		long start = metrics == null ? 0 : System.nanoTime();
+		int steps = 0;
 		State init = new State();
 		_currStates.add(init);
 		while (!_finish) {
-			// multiple threads here
+			// states of the beam are expanded by NUM_THREADS threads
 			proceedOneStep();
+			++steps;
 			// upon consideration of dynamic programming, prune should be done
 			// after all states are calculated
 			
-			if (earlyUpdate && isToEarlyUpdate())
+			if (earlyUpdate && isToEarlyUpdate()) {
 				_finish = true;
+				if (metrics != null)
+					metrics.increment(ParseMetrics.Counter.EARLY_UPDATES);
+			}
+		}
+		if (metrics != null) {
+			long nanos = System.nanoTime() - start;
+			metrics.increment(ParseMetrics.Counter.SENTENCES);
+			metrics.time(ParseMetrics.Timer.SENTENCE, nanos);
+			metrics.record(ParseMetrics.Distribution.SENTENCE_MICROS, nanos / 1000);
+			metrics.record(ParseMetrics.Distribution.STEPS_PER_SENTENCE, steps);
 		}
 //		return _currStates.get(0).collectResult();
 	}
@@ -689,17 +1171,129 @@ public class CCGChart {
 	public CCGParseResult getResult(){
 		return _currStates.get(0).collectResult();
 	}
+
+	/**
+	 * @return the number of states in the beam
+	 */
+	int numOfStates() {
+		return _currStates.size();
+	}
+
+	/**
+	 * The features of the i-th state of the beam, as they are scored, for
+	 * the benchmarks.
+	 */
+	FeatureSet getFeatures(int i) {
+		return _featureExtractor.getFeatures(_currStates.get(i));
+	}
+
+	/**
+	 * Extract the k best derivations from the packed forest, see
+	 * PACKED_FOREST. The states merged are only equivalent on the top of
+	 * their stacks, so a derivation is replayed from scratch, and dropped if
+	 * one of its rules no longer applies.
+	 * @param k
+	 * @return at most k results, the best first
+	 */
+	public List<CCGParseResult> getKBestResults(int k) {
+		List<State> finals = new ArrayList<State>();
+		for (State s : _currStates) {
+			if (s.isFinished())
+				finals.add(s);
+		}
+		if (finals.isEmpty())
+			finals.add(_currStates.get(0));
+
+		Map<State, List<Derivation>> memo = new HashMap<State, List<Derivation>>();
+		List<Derivation> derivations = new ArrayList<Derivation>();
+		for (State s : finals)
+			derivations.addAll(kBest(s, k, memo));
+		sortDerivations(derivations);
+
+		List<CCGParseResult> results = new ArrayList<CCGParseResult>();
+		for (Derivation d : derivations) {
+			if (results.size() >= k)
+				break;
+			State replayed = replay(d, memo);
+			if (replayed != null)
+				results.add(replayed.collectResult());
+		}
+		return results;
+	}
+
+	/**
+	 * The k best derivations of s, by the k best derivations of the
+	 * predecessors over every backpointer.
+	 */
+	private List<Derivation> kBest(State s, int k, Map<State, List<Derivation>> memo) {
+		List<Derivation> res = memo.get(s);
+		if (res != null)
+			return res;
+		res = new ArrayList<Derivation>();
+		if (s._backPointers == null) {
+			res.add(new Derivation(s, -1, -1, s.score()));
+		} else {
+			for (int e = 0; e < s._backPointers.size(); ++e) {
+				BackPointer bp = s._backPointers.get(e);
+				List<Derivation> prev = kBest(bp.prev, k, memo);
+				for (int r = 0; r < prev.size(); ++r)
+					res.add(new Derivation(s, e, r, prev.get(r).score + bp.delta));
+			}
+			sortDerivations(res);
+			if (res.size() > k)
+				res = new ArrayList<Derivation>(res.subList(0, k));
+		}
+		memo.put(s, res);
+		return res;
+	}
+
+	private static void sortDerivations(List<Derivation> derivations) {
+		// stable, the Viterbi derivation stays first among equal scores
+		Collections.sort(derivations, new Comparator<Derivation>() {
+			@Override
+			public int compare(Derivation d1, Derivation d2) {
+				return Double.compare(d2.score, d1.score);
+			}
+		});
+	}
+
+	/**
+	 * Apply the actions of d to a new state.
+	 * @return the state, or null if an action fails
+	 */
+	private State replay(Derivation d, Map<State, List<Derivation>> memo) {
+		List<BackPointer> path = new ArrayList<BackPointer>();
+		while (d.edge >= 0) {
+			BackPointer bp = d.state._backPointers.get(d.edge);
+			path.add(bp);
+			d = memo.get(bp.prev).get(d.rank);
+		}
+		// the initial state, or a state not packed
+		State s = d.state.clone();
+		for (int i = path.size() - 1; i >= 0; --i) {
+			if (!s.act(path.get(i).actionB, path.get(i).actionU))
+				return null;
+		}
+		return s;
+	}
 	
 	public void updateClassifier() { // TODO compare actions
 		if (_goldActions == null){
 			System.err.println(_sent.source + " is ignored because no gold parse found");
 			return;
 		}
+		updateWeights();
+		// the averaged weights count every instance, updated or not, with
+		// the weights after its update
+		_classifier.tick();
+	}
+
+	private void updateWeights() {
 		State best = _currStates.get(0);
 		if (best._gold)
 			return;
 //		CCGParseResult pr = best.collectResult();
-		List<Action> decActs = getActionSequence(best._stack);
+		List<Action> decActs = getActionSequence(best._stack.toList());
 		List<Action> goldActs = _goldActions;
 		//getActionSequence(best.collectResult().nodes, _interpretation);
 		
@@ -714,6 +1308,11 @@ public class CCGChart {
 		}
 		
 		State init2 = init.clone();
+		if (HASHED_FEATURES) {
+			_classifier.minus(collectHashedFeats(init, decActs.subList(firstE, decActs.size())));
+			_classifier.plus(collectHashedFeats(init2, goldActs.subList(firstE, end)));
+			return;
+		}
 		FeatureSet feats = collectFeats(init, decActs.subList(firstE, decActs.size()));
 		_classifier.minus(feats);
 
@@ -880,6 +1479,23 @@ public class CCGChart {
 		String combineFour(Object f, Object s, Object t, Object fo) { 
 			return this + "=" + f + "_" + s + "_" + t + "_" + fo; 
 		}
+		
+		/* hashed counterparts of combineX, atoms are given by their fingerprints */
+		private long seed() {
+			return StringIndexer.mix(0x9e3779b97f4a7c15L * (ordinal() + 1));
+		}
+		
+		long hashTwo(long f, long s) {
+			return StringIndexer.mix(StringIndexer.mix(seed() ^ f) ^ s);
+		}
+		
+		long hashThree(long f, long s, long t) {
+			return StringIndexer.mix(hashTwo(f, s) ^ t);
+		}
+		
+		long hashFour(long f, long s, long t, long fo) {
+			return StringIndexer.mix(hashThree(f, s, t) ^ fo);
+		}
 	}
 
 	private class CCGFeatures implements FeatureExtractor<State> {
@@ -889,170 +1505,335 @@ public class CCGChart {
 		}
 
 		private final String SEP = "-";
+		private final StringIndexer ATOMS = HashedFeatureSet.ATOMS;
+		private final int BOS = ATOMS.getIndex("#BOS#");
+		// the atom of a null additional info, "null" as in string concatenation
+		private final int NULL_ADD = ATOMS.getIndex(null);
+
+		/* positions in the atoms of a node, see nodeAtoms() */
+		private static final int LEFT_WORD = 0, RIGHT_WORD = 1, LEFT_POS = 2, RIGHT_POS = 3, LENGTH = 4,
+				HEAD_WORD = 5, HEAD_POS = 6, HEAD_ADD = 7, LEFT_ADD = 8, RIGHT_ADD = 9, NUM_OF_NODE_ATOMS = 10;
+		private static final int NO_ADD = -1;
+
+		/*
+		 * features of the window templates by windowKey(), they only depend on
+		 * the queue index and the top category
+		 */
+		private final ConcurrentHashMap<Long, String[]> _stringWindows = new ConcurrentHashMap<Long, String[]>();
+		private final ConcurrentHashMap<Long, long[]> _hashedWindows = new ConcurrentHashMap<Long, long[]>();
+		// atom + 1 of the category of CategoryObject.CATEGORY_INDEX ID, 0 if unknown
+		private volatile int[] _categoryAtoms = new int[256];
+
+		/**
+		 * Where the extracted features go. Atoms are IDs in HashedFeatureSet.ATOMS,
+		 * or atoms of the sentence, see SentenceForCCGParsing.atomString().
+		 * combine() builds features as CCGFeatureType.combineTwo/Three does,
+		 * join() builds the ones written as ordinal-atom-atom.
+		 */
+		private abstract class FeatureSink {
+			abstract void combine(CCGFeatureType type, int f, int s);
+			abstract void combine(CCGFeatureType type, int f, int s, int t);
+			abstract void join(CCGFeatureType type, int f, int s);
+			abstract void join(CCGFeatureType type, int f, int s, int t);
+			/** the features of windowFeatures(), cached */
+			abstract void window(int index, int top1Cat, boolean adds);
+		}
+
+		private class StringSink extends FeatureSink {
+			FeatureSet feats = new FeatureSet();
+
+			void put(String f) {
+				feats.put(f);
+			}
+
+			void combine(CCGFeatureType type, int f, int s) {
+				put(type.combineTwo(_sent.atomString(f), _sent.atomString(s)));
+			}
+
+			void combine(CCGFeatureType type, int f, int s, int t) {
+				put(type.combineThree(_sent.atomString(f), _sent.atomString(s), _sent.atomString(t)));
+			}
+
+			void join(CCGFeatureType type, int f, int s) {
+				put(type.ordinal() + SEP + _sent.atomString(f) + SEP + _sent.atomString(s));
+			}
+
+			void join(CCGFeatureType type, int f, int s, int t) {
+				put(type.ordinal() + SEP + _sent.atomString(f) + SEP + _sent.atomString(s) + SEP + _sent.atomString(t));
+			}
+
+			void window(int index, int top1Cat, boolean adds) {
+				Long key = windowKey(index, top1Cat, adds);
+				String[] window = _stringWindows.get(key);
+				if (window == null) {
+					final List<String> recorded = new ArrayList<String>();
+					windowFeatures(new StringSink() {
+						@Override
+						void put(String f) {
+							recorded.add(f);
+						}
+					}, index, top1Cat, adds);
+					window = recorded.toArray(new String[recorded.size()]);
+					_stringWindows.put(key, window);
+				}
+				for (String f : window)
+					put(f);
+			}
+		}
+
+		private class HashSink extends FeatureSink {
+			HashedFeatureSet feats = new HashedFeatureSet();
+
+			void put(long f) {
+				feats.put(f);
+			}
+
+			void combine(CCGFeatureType type, int f, int s) {
+				put(type.hashTwo(_sent.atomFingerprint(f), _sent.atomFingerprint(s)));
+			}
+
+			void combine(CCGFeatureType type, int f, int s, int t) {
+				put(type.hashThree(_sent.atomFingerprint(f), _sent.atomFingerprint(s), _sent.atomFingerprint(t)));
+			}
+
+			void join(CCGFeatureType type, int f, int s) {
+				combine(type, f, s);
+			}
+
+			void join(CCGFeatureType type, int f, int s, int t) {
+				combine(type, f, s, t);
+			}
+
+			void window(int index, int top1Cat, boolean adds) {
+				Long key = windowKey(index, top1Cat, adds);
+				long[] window = _hashedWindows.get(key);
+				if (window == null) {
+					final List<Long> recorded = new ArrayList<Long>();
+					windowFeatures(new HashSink() {
+						@Override
+						void put(long f) {
+							recorded.add(f);
+						}
+					}, index, top1Cat, adds);
+					window = new long[recorded.size()];
+					for (int i = 0; i < window.length; ++i)
+						window[i] = recorded.get(i);
+					_hashedWindows.put(key, window);
+				}
+				for (long f : window)
+					put(f);
+			}
+		}
 
 		@Override
 		public FeatureSet getFeatures(State s) {
-			FeatureSet feats = new FeatureSet();
-			State preview = s.clone();
-			// State preview = instance.first().preview(instance.second(),
-			// instance.third());
-			
-			/*top 3 node on the stack*/
-			CCGNode top[] = new CCGNode[3];
-			top[0] = preview._stack.pop();
-			top[1] = preview._stack.empty() ? null : preview._stack.pop();
-			top[2] = preview._stack.empty() ? null : preview._stack.pop();
+			StringSink sink = new StringSink();
+			extract(s, sink);
+			return sink.feats;
+		}
 
-			/*top 3 cat on the stack*/
-			String top1Cat = top[0].categoryToString();
-			String top2Cat = top[1] == null ? "#BOS#" : top[1].categoryToString();
-			String top3Cat = top[2] == null ? "#BOS#" : top[2].categoryToString();
+		@Override
+		public HashedFeatureSet getHashedFeatures(State s) {
+			HashSink sink = new HashSink();
+			extract(s, sink);
+			return sink.feats;
+		}
 
-			/*last three words and poss*/
-			int index = preview._queueIndex;
-			String nextWord[] = new String[3];
-			String lastWord[] = new String[3];
-			String nextPos[] = new String[3];
-			String lastPos[] = new String[3];
-			for (int i = 0; i < 3; ++i) nextWord[i] = _sent.word(index + i);
-			for (int i = 0; i < 3; ++i) lastWord[i] = _sent.word(index - 1 - i);
-			for (int i = 0; i < 3; ++i) nextPos[i] = _sent.pos(index + i);
-			for (int i = 0; i < 3; ++i) lastPos[i] = _sent.pos(index - 1 - i);
-			
+		private int atom(String s) {
+			return ATOMS.getIndex(s);
+		}
 
-			/*last three terminals*/
-//			CCGTerminalNode[] lastTerm = new CCGTerminalNode[3];
-//			int i = 0;
-//			int j = top[i].end();
-//			for (int k = 0; k < 3; ++k) {
-//				if (top[i] == null)
-//					break;
-//				lastTerm[k] = top[i].getTerminalNode(j);
-//				if (j == top[i].start())
-//					i++;
-//				j--;
-//			}
-//			String last1Cat = lastTerm[0].categoryToString();
-//			String last2Cat = lastTerm[1] != null ? lastTerm[1].categoryToString() : "#BOS#";
-//			String last3Cat = lastTerm[2] != null ? lastTerm[2].categoryToString() : "#BOS#";
-
-			String s1lw = top[0].getLeftmostTerm().word();
-			String s1rw = top[0].getRightmostTerm().word();
-			String s1lp = top[0].getLeftmostTerm().modPOS();
-			String s1rp = top[0].getRightmostTerm().modPOS();
-			int s1len = top[0].end() - top[0].start() + 1;
-//			CCGRule rule = preview.lastRule;
-//			if(rule != null){ // should use the children of the two words
-//				if (rule instanceof CCGBinaryRule)
-//					feats.put(CCGFeatureType.RULE_AND_WORD.ordinal() + SEP + rule + SEP + ((CCGInternalNode)top[0]).daughters()[0].headTerm().word() +SEP+ ((CCGInternalNode)top[0]).daughters()[1].headTerm().word());
-//				if (rule instanceof CCGUnaryRule)
-//					feats.put(CCGFeatureType.RULE_AND_WORD.ordinal() + SEP + rule + SEP + lastWord[0]);
-//			}
-			
-			CCGTerminalNode headTerm1 = top[0].headTerm();
-			CCGTerminalNode headTerm2 = top[1] == null ? null: top[1].headTerm();
-			CCGTerminalNode headTerm3 = top[2] == null ? null :top[2].headTerm();
-			String headWord1 = headTerm1.word();
-			String headWord2 = headTerm2 == null? "#BOS#" : headTerm2.word();
-//			String headWord3 = headTerm3 == null? "#BOS#" : headTerm3.word();
-			String headPos1 = headTerm1.modPOS();
-			String headPos2 = headTerm2 == null? "#BOS#" : headTerm2.modPOS();
-			String headPos3 = headTerm3 == null? "#BOS#" : headTerm3.modPOS();
-//			String headPos3 = headTerm3 == null? "#BOS#" : headTerm3.word();
-//			feats.put(CCGFeatureType.L1C.ordinal() + SEP + last1Cat);
-//			if (last2Cat!=null) feats.put(CCGFeatureType.L2C.ordinal() + SEP + last2Cat);
-//			if (last3Cat!=null) feats.put(CCGFeatureType.L3C.ordinal() + SEP+ last3Cat);
-							
-			
-//			feats.put(CCGFeatureType.S1C.ordinal() + SEP + top1Cat);
-//			feats.put(CCGFeatureType.S2C.ordinal() + SEP + top2Cat);
-//			feats.put(CCGFeatureType.S3C.ordinal() + SEP + top3Cat);
+		private long windowKey(int index, int top1Cat, boolean adds) {
+			return ((long) index << 33) | ((long) top1Cat << 1) | (adds ? 1 : 0);
+		}
+
+		/**
+		 * The atom of the category of cn, cached by the category ID.
+		 */
+		private int categoryAtom(CCGNode cn) {
+			int id = cn.categoryId();
+			int[] atoms = _categoryAtoms;
+			if (id < atoms.length && atoms[id] != 0)
+				return atoms[id] - 1;
+			int atom = atom(cn.categoryToString());
+			if (id >= atoms.length) {
+				int[] newAtoms = new int[Math.max(atoms.length * 2, id + 1)];
+				System.arraycopy(atoms, 0, newAtoms, 0, atoms.length);
+				atoms = newAtoms;
+			}
+			// a lost update is only computed again
+			atoms[id] = atom + 1;
+			_categoryAtoms = atoms;
+			return atom;
+		}
+
+		/**
+		 * The atoms of the words under cn, read from the sentence and cached on cn.
+		 */
+		private int[] nodeAtoms(CCGNode cn) {
+			int[] atoms = cn.featureAtoms();
+			if (atoms != null)
+				return atoms;
+			atoms = new int[NUM_OF_NODE_ATOMS];
+			int left = cn.start();
+			int right = cn.end();
+			CCGTerminalNode head = cn.headTerm();
+			atoms[LEFT_WORD] = _sent.wordAtom(left);
+			atoms[RIGHT_WORD] = _sent.wordAtom(right);
+			atoms[LEFT_POS] = _sent.posAtom(left);
+			atoms[RIGHT_POS] = _sent.posAtom(right);
+			atoms[LENGTH] = right - left + 1;
+			atoms[HEAD_WORD] = _sent.wordAtom(head.index());
+			atoms[HEAD_POS] = _sent.posAtom(head.index());
+			if (head.additionalInfo != null) {
+				atoms[HEAD_ADD] = _sent.addAtom(head.index());
+				atoms[LEFT_ADD] = _sent.addAtom(left);
+				atoms[RIGHT_ADD] = _sent.addAtom(right);
+			} else {
+				atoms[HEAD_ADD] = atoms[LEFT_ADD] = atoms[RIGHT_ADD] = NO_ADD;
+			}
+			cn.featureAtoms(atoms);
+			return atoms;
+		}
+
+		/**
+		 * The atom of the additional info of the head of a node, which may be null.
+		 * The atoms of the node have NO_ADD only if it is null, so nothing is
+		 * added to ATOMS here.
+		 */
+		private int addAtom(int[] atoms) {
+			return atoms[HEAD_ADD] != NO_ADD ? atoms[HEAD_ADD] : NULL_ADD;
+		}
+
+		/**
+		 * Templates of the words, POSs (or additional info if adds) around
+		 * the queue index with the top category.
+		 */
+		private void windowFeatures(FeatureSink feats, int index, int top1Cat, boolean adds) {
+			if (adds) {
+				int nextAdds[] = new int[3];
+				int lastAdds[] = new int[3];
+				for (int i = 0; i < 3; ++i)
+					nextAdds[i] = _sent.addAtom(index + i);
+				for (int i = 0; i < 3; ++i)
+					lastAdds[i] = _sent.addAtom(index - 1 - i);
+
+				/* Stack[1].category + addionalInfo unigram/bigram */
+				feats.join(CCGFeatureType.N1A_S1C, nextAdds[0], top1Cat);
+				feats.join(CCGFeatureType.N2A_S1C, nextAdds[1], top1Cat);
+				feats.join(CCGFeatureType.L1A_S1C, lastAdds[0], top1Cat);
+				feats.join(CCGFeatureType.L2A_S1C, lastAdds[1], top1Cat);
+				feats.join(CCGFeatureType.L3A_S1C, lastAdds[2], top1Cat);
+				feats.join(CCGFeatureType.L1A_N1A_S1C, lastAdds[0], nextAdds[0], top1Cat);
+				feats.join(CCGFeatureType.N1A_N2A_S1C, nextAdds[0], nextAdds[1], top1Cat);
+				feats.join(CCGFeatureType.L3A_L2A_S1C, lastAdds[2], lastAdds[1], top1Cat);
+				feats.join(CCGFeatureType.L2A_L1A_S1C, lastAdds[1], lastAdds[0], top1Cat);
+				return;
+			}
+
+			/*last three words and poss*/
+			int nextWord[] = new int[3];
+			int lastWord[] = new int[3];
+			int nextPos[] = new int[3];
+			int lastPos[] = new int[3];
+			for (int i = 0; i < 3; ++i) nextWord[i] = _sent.wordAtom(index + i);
+			for (int i = 0; i < 3; ++i) lastWord[i] = _sent.wordAtom(index - 1 - i);
+			for (int i = 0; i < 3; ++i) nextPos[i] = _sent.posAtom(index + i);
+			for (int i = 0; i < 3; ++i) lastPos[i] = _sent.posAtom(index - 1 - i);
 
 			/* Stack[1].category + word unigram/bigram */
-			feats.put(CCGFeatureType.N1W_S1C.combineTwo(nextWord[0], top1Cat));
-			feats.put(CCGFeatureType.N2W_S1C.combineTwo(nextWord[1], top1Cat));
-			feats.put(CCGFeatureType.L1W_S1C.combineTwo(lastWord[0], top1Cat));
-			feats.put(CCGFeatureType.L2W_S1C.combineTwo(lastWord[1], top1Cat));
-			feats.put(CCGFeatureType.L3W_S1C.combineTwo(lastWord[2], top1Cat));
-
-			feats.put(CCGFeatureType.L1W_N1W_S1C.combineThree(lastWord[0], nextWord[0], top1Cat));
-			feats.put(CCGFeatureType.N1W_N2W_S1C.combineThree(nextWord[0], nextWord[1], top1Cat));
-			feats.put(CCGFeatureType.L3W_L2W_S1C.combineThree(lastWord[2], lastWord[1], top1Cat));
-			feats.put(CCGFeatureType.L2W_L1W_S1C.combineThree(lastWord[1], lastWord[0], top1Cat));
+			feats.combine(CCGFeatureType.N1W_S1C, nextWord[0], top1Cat);
+			feats.combine(CCGFeatureType.N2W_S1C, nextWord[1], top1Cat);
+			feats.combine(CCGFeatureType.L1W_S1C, lastWord[0], top1Cat);
+			feats.combine(CCGFeatureType.L2W_S1C, lastWord[1], top1Cat);
+			feats.combine(CCGFeatureType.L3W_S1C, lastWord[2], top1Cat);
+
+			feats.combine(CCGFeatureType.L1W_N1W_S1C, lastWord[0], nextWord[0], top1Cat);
+			feats.combine(CCGFeatureType.N1W_N2W_S1C, nextWord[0], nextWord[1], top1Cat);
+			feats.combine(CCGFeatureType.L3W_L2W_S1C, lastWord[2], lastWord[1], top1Cat);
+			feats.combine(CCGFeatureType.L2W_L1W_S1C, lastWord[1], lastWord[0], top1Cat);
 			
 			/* Stack[1].category + POS unigram/bigram */
-			feats.put(CCGFeatureType.N1P_S1C.combineTwo(nextPos[0], top1Cat));
-			feats.put(CCGFeatureType.N2P_S1C.combineTwo(nextPos[1], top1Cat));
-			feats.put(CCGFeatureType.L1P_S1C.combineTwo(lastPos[0], top1Cat));
-			feats.put(CCGFeatureType.L2P_S1C.combineTwo(lastPos[1], top1Cat));
-			feats.put(CCGFeatureType.L3P_S1C.combineTwo(lastPos[2], top1Cat));
+			feats.combine(CCGFeatureType.N1P_S1C, nextPos[0], top1Cat);
+			feats.combine(CCGFeatureType.N2P_S1C, nextPos[1], top1Cat);
+			feats.combine(CCGFeatureType.L1P_S1C, lastPos[0], top1Cat);
+			feats.combine(CCGFeatureType.L2P_S1C, lastPos[1], top1Cat);
+			feats.combine(CCGFeatureType.L3P_S1C, lastPos[2], top1Cat);
 			
-			feats.put(CCGFeatureType.L1P_N1P_S1C.combineThree(lastPos[0], nextPos[0], top1Cat));
-			feats.put(CCGFeatureType.N1P_N2P_S1C.combineThree(nextPos[0], nextPos[1], top1Cat));
-			feats.put(CCGFeatureType.L3P_L2P_S1C.combineThree(lastPos[2], lastPos[1], top1Cat));
-			feats.put(CCGFeatureType.L2P_L1P_S1C.combineThree(lastPos[1], lastPos[0], top1Cat));
+			feats.combine(CCGFeatureType.L1P_N1P_S1C, lastPos[0], nextPos[0], top1Cat);
+			feats.combine(CCGFeatureType.N1P_N2P_S1C, nextPos[0], nextPos[1], top1Cat);
+			feats.combine(CCGFeatureType.L3P_L2P_S1C, lastPos[2], lastPos[1], top1Cat);
+			feats.combine(CCGFeatureType.L2P_L1P_S1C, lastPos[1], lastPos[0], top1Cat);
+		}
+
+		private void extract(State s, FeatureSink feats) {
+			/*top 3 node on the stack, read in place*/
+			CCGNode top[] = new CCGNode[3];
+			top[0] = s._stack.peek();
+			top[1] = s._stack.peek(1);
+			top[2] = s._stack.peek(2);
+
+			/*top 3 cat on the stack*/
+			int top1Cat = categoryAtom(top[0]);
+			int top2Cat = top[1] == null ? BOS : categoryAtom(top[1]);
+			int top3Cat = top[2] == null ? BOS : categoryAtom(top[2]);
+
+			/*atoms of the top 3 nodes, cached on the nodes*/
+			int[] atoms1 = nodeAtoms(top[0]);
+			int[] atoms2 = top[1] == null ? null : nodeAtoms(top[1]);
+			int[] atoms3 = top[2] == null ? null : nodeAtoms(top[2]);
+			int index = s._queueIndex;
+
+			int s1lw = atoms1[LEFT_WORD];
+			int s1rw = atoms1[RIGHT_WORD];
+			int s1lp = atoms1[LEFT_POS];
+			int s1rp = atoms1[RIGHT_POS];
+			int s1len = atoms1[LENGTH];
 			
-//			feats.put(CCGFeatureType.N3W_S1C.combineTwo(nextWord[2], top1Cat));
-//			feats.put(CCGFeatureType.N2W_N3W_S1C.combineThree(nextWord[1], nextWord[2], top1Cat));
-//			feats.put(CCGFeatureType.N3P_S1C.combineTwo(nextPos[2], top1Cat));
-//			feats.put(CCGFeatureType.N2P_N3P_S1C.combineThree(nextPos[1], nextPos[2], top1Cat));
+			int headWord1 = atoms1[HEAD_WORD];
+			int headWord2 = atoms2 == null? BOS : atoms2[HEAD_WORD];
+			int headPos1 = atoms1[HEAD_POS];
+			int headPos2 = atoms2 == null? BOS : atoms2[HEAD_POS];
+			int headPos3 = atoms3 == null? BOS : atoms3[HEAD_POS];
+
+			/* Stack[1].category + word/POS unigram/bigram, cached per queue index */
+			feats.window(index, top1Cat, false);
 			
-//			feats.put(CCGFeatureType.S1H_S1C.combineThree(headTerm1.word() + SEP + top[0].categoryToString());
-			feats.put(CCGFeatureType.S1W_S1C.combineTwo(headWord1, top1Cat));
-			feats.put(CCGFeatureType.S1P_S1C.combineTwo(headPos1, top1Cat));
+			feats.combine(CCGFeatureType.S1W_S1C, headWord1, top1Cat);
+			feats.combine(CCGFeatureType.S1P_S1C, headPos1, top1Cat);
 			
 			if (s1len > 1) {
-				feats.put(CCGFeatureType.S1LeW_S1C.combineTwo(s1lw, top1Cat));
-				feats.put(CCGFeatureType.S1RiW_S1C.combineTwo(s1rw, top1Cat));
-				feats.put(CCGFeatureType.S1LeP_S1C.combineTwo(s1lp, top1Cat));
-				feats.put(CCGFeatureType.S1RiP_S1C.combineTwo(s1rp, top1Cat));
-				feats.put(CCGFeatureType.S1LeP_S1RiP_S1C.combineThree(s1lp, s1rp, top1Cat));
+				feats.combine(CCGFeatureType.S1LeW_S1C, s1lw, top1Cat);
+				feats.combine(CCGFeatureType.S1RiW_S1C, s1rw, top1Cat);
+				feats.combine(CCGFeatureType.S1LeP_S1C, s1lp, top1Cat);
+				feats.combine(CCGFeatureType.S1RiP_S1C, s1rp, top1Cat);
+				feats.combine(CCGFeatureType.S1LeP_S1RiP_S1C, s1lp, s1rp, top1Cat);
 			}
 
-			feats.put(CCGFeatureType.S1W_S2W.combineTwo(headWord1, headWord2));
-			feats.put(CCGFeatureType.S1C_S2C.combineTwo(top1Cat, top2Cat));
-			feats.put(CCGFeatureType.S1C_S2C_S3C.combineThree(top1Cat, top2Cat, top3Cat));
-
-			feats.put(CCGFeatureType.S1C_S2H.combineTwo(top1Cat, headWord2));
-			feats.put(CCGFeatureType.S1H_S2C.combineTwo(headWord1, top2Cat));
-			feats.put(CCGFeatureType.S1C_S2P.combineTwo(top1Cat, headPos2));
-			feats.put(CCGFeatureType.S1C_S2P_S3P.combineThree(top1Cat, headPos2, headPos3));
-			
-//			feats.put(CCGFeatureType.S2W_S1W_S1C.ordinal() + SEP + headWord2 + SEP + headTerm1.word() + SEP + top1Cat);
-//			feats.put(CCGFeatureType.S3W_S2W_S1W_S1C.ordinal() + SEP + headWord3 + SEP + headWord2+ SEP + headTerm1.word() + SEP + top1Cat);
-
-			if (headTerm1.additionalInfo != null){
-				String nextAdds[] = new String[3];
-				String lastAdds[] = new String[3];
-				String headAdd1 = headTerm1.additionalInfo;
-				String headAdd2 = headTerm2 == null? "#BOS#" : headTerm2.additionalInfo;
-				String headAdd3 = headTerm3 == null? "#BOS#" : headTerm3.additionalInfo;
-				String s1la = top[0].getLeftmostTerm().additionalInfo;
-				String s1ra = top[0].getRightmostTerm().additionalInfo;
-				
-				for (int i = 0; i < 3; ++i)
-					nextAdds[i] = _sent.additionalInfo(index + i);
-				for (int i = 0; i < 3; ++i)
-					lastAdds[i] = _sent.additionalInfo(index - 1 - i);
+			feats.combine(CCGFeatureType.S1W_S2W, headWord1, headWord2);
+			feats.combine(CCGFeatureType.S1C_S2C, top1Cat, top2Cat);
+			feats.combine(CCGFeatureType.S1C_S2C_S3C, top1Cat, top2Cat, top3Cat);
+
+			feats.combine(CCGFeatureType.S1C_S2H, top1Cat, headWord2);
+			feats.combine(CCGFeatureType.S1H_S2C, headWord1, top2Cat);
+			feats.combine(CCGFeatureType.S1C_S2P, top1Cat, headPos2);
+			feats.combine(CCGFeatureType.S1C_S2P_S3P, top1Cat, headPos2, headPos3);
+
+			if (atoms1[HEAD_ADD] != NO_ADD){
+				int headAdd1 = atoms1[HEAD_ADD];
+				int headAdd2 = atoms2 == null? BOS : addAtom(atoms2);
+				int headAdd3 = atoms3 == null? BOS : addAtom(atoms3);
+				int s1la = atoms1[LEFT_ADD];
+				int s1ra = atoms1[RIGHT_ADD];
 	
-				feats.put(CCGFeatureType.S1A_S1C.ordinal() + SEP + headAdd1 + SEP + top1Cat);
-				feats.put(CCGFeatureType.S1LeA_S1C.ordinal() + SEP + s1la + SEP + top1Cat);
-				feats.put(CCGFeatureType.S1RiA_S1C.ordinal() + SEP + s1ra + SEP + top1Cat);
-				feats.put(CCGFeatureType.S1C_S2A.ordinal() + SEP + top1Cat + SEP + headAdd2);
-				feats.put(CCGFeatureType.S1C_S2A_S3A.ordinal() + SEP + top1Cat + SEP + headAdd2 + SEP + headAdd3);
+				feats.join(CCGFeatureType.S1A_S1C, headAdd1, top1Cat);
+				feats.join(CCGFeatureType.S1LeA_S1C, s1la, top1Cat);
+				feats.join(CCGFeatureType.S1RiA_S1C, s1ra, top1Cat);
+				feats.join(CCGFeatureType.S1C_S2A, top1Cat, headAdd2);
+				feats.join(CCGFeatureType.S1C_S2A_S3A, top1Cat, headAdd2, headAdd3);
 	
-				/* Stack[1].category + addionalInfo unigram/bigram */
-				feats.put(CCGFeatureType.N1A_S1C.ordinal() + SEP + nextAdds[0] + SEP + top1Cat);
-				feats.put(CCGFeatureType.N2A_S1C.ordinal() + SEP + nextAdds[1] + SEP + top1Cat);
-	//			feats.put(CCGFeatureType.N3A_S1C.ordinal() + SEP + nextAdds[2] + SEP + top1Cat);
-				feats.put(CCGFeatureType.L1A_S1C.ordinal() + SEP + lastAdds[0] + SEP + top1Cat);
-				feats.put(CCGFeatureType.L2A_S1C.ordinal() + SEP + lastAdds[1] + SEP + top1Cat);
-				feats.put(CCGFeatureType.L3A_S1C.ordinal() + SEP + lastAdds[2] + SEP + top1Cat);
-				feats.put(CCGFeatureType.L1A_N1A_S1C.ordinal() + SEP + lastAdds[0] + SEP + nextAdds[0] + SEP + top1Cat);
-				feats.put(CCGFeatureType.N1A_N2A_S1C.ordinal() + SEP + nextAdds[0] + SEP + nextAdds[1] + SEP + top1Cat);
-	//			feats.put(CCGFeatureType.N2P_N3P_S1C.ordinal() + SEP + nextAdds[1] + SEP + nextAdds[2] + SEP + top1Cat);
-				feats.put(CCGFeatureType.L3A_L2A_S1C.ordinal() + SEP + lastAdds[2] + SEP + lastAdds[1] + SEP + top1Cat);
-				feats.put(CCGFeatureType.L2A_L1A_S1C.ordinal() + SEP + lastAdds[1] + SEP + lastAdds[0] + SEP + top1Cat);
+				/* Stack[1].category + addionalInfo unigram/bigram, cached per queue index */
+				feats.window(index, top1Cat, true);
 			}
 			
 			/*DEPENDENCY FEATURES*/
@@ -1060,30 +1841,22 @@ public class CCGChart {
 				CCGInternalNode tn = (CCGInternalNode) top[0];
 				Set<Integer> newlyInactiveNodes = top[0].collectNewInactiveNodes();
 				for (int ii : newlyInactiveNodes) {
-					CCGTerminalNode predNode = tn.getTerminalNode(ii);
-					for (int jj = 0; jj < top[0].slots[ii - top[0].start()].length; ++jj) {
-						// sb.append(SEP + j); // XXX same as last XXX
-						for (int kk : top[0].slots[ii - top[0].start()][jj]) {
-							
-							StringBuffer w2w = new StringBuffer(predNode.word());
-							StringBuffer p2p = new StringBuffer(predNode.modPOS());
-							StringBuffer w2p = new StringBuffer(predNode.word());
-							StringBuffer p2w = new StringBuffer(predNode.modPOS());
+					int predWord = _sent.wordAtom(ii);
+					int predPos = _sent.posAtom(ii);
+					SlotTable slots = top[0].slots();
+					for (int jj = 0; jj < slots.width(ii - top[0].start()); ++jj) {
+						for (int kk : slots.get(ii - top[0].start(), jj)) {
+							int argWord = _sent.wordAtom(kk);
+							int argPos = _sent.posAtom(kk);
+							feats.join(CCGFeatureType.DEP_W2W, predWord, argWord);
+							feats.join(CCGFeatureType.DEP_W2P, predWord, argPos);
+							feats.join(CCGFeatureType.DEP_W2W_S1C, predWord, argWord, top1Cat);
+							feats.join(CCGFeatureType.DEP_W2P_S1C, predWord, argPos, top1Cat);
 							
-							CCGTerminalNode argNode = top[0].getTerminalNode(kk);
-							w2w.append(SEP + argNode.word());
-							w2p.append(SEP + argNode.modPOS());
-							feats.put(CCGFeatureType.DEP_W2W.ordinal() + SEP + w2w.toString());
-							feats.put(CCGFeatureType.DEP_W2P.ordinal() + SEP + w2p.toString());
-							feats.put(CCGFeatureType.DEP_W2W_S1C.ordinal() + SEP + w2w.toString() + SEP + top1Cat);
-							feats.put(CCGFeatureType.DEP_W2P_S1C.ordinal() + SEP + w2p.toString() + SEP + top1Cat);
-							
-							p2p.append(SEP + argNode.modPOS());
-							p2w.append(SEP + argNode.word());
-							feats.put(CCGFeatureType.DEP_P2P.ordinal() + SEP + p2p.toString());
-							feats.put(CCGFeatureType.DEP_P2W.ordinal() + SEP + p2w.toString());
-							feats.put(CCGFeatureType.DEP_P2P_S1C.ordinal() + SEP + p2p.toString() + SEP + top1Cat);
-							feats.put(CCGFeatureType.DEP_P2W_S1C.ordinal() + SEP + p2w.toString() + SEP + top1Cat);
+							feats.join(CCGFeatureType.DEP_P2P, predPos, argPos);
+							feats.join(CCGFeatureType.DEP_P2W, predPos, argWord);
+							feats.join(CCGFeatureType.DEP_P2P_S1C, predPos, argPos, top1Cat);
+							feats.join(CCGFeatureType.DEP_P2W_S1C, predPos, argWord, top1Cat);
 							/*
 							if (ii==kk)
 								continue;
@@ -1196,8 +1969,6 @@ public class CCGChart {
 					}
 				}
 			}
-
-			return feats;
 		}
 	}
 }
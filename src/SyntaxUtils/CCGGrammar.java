@@ -1,15 +1,24 @@
 package SyntaxUtils;
 
+import java.io.BufferedOutputStream;
 import java.io.BufferedReader;
+import java.io.DataOutputStream;
+import java.io.File;
 import java.io.FileInputStream;
+import java.io.FileOutputStream;
 import java.io.IOException;
 import java.io.InputStreamReader;
+import java.io.RandomAccessFile;
 import java.io.Writer;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel.MapMode;
 import java.util.HashMap;
 import java.util.Map;
 import java.util.Set;
 import java.util.TreeSet;
 
+import LinguaView.syntax.CategoryObject;
+
 /**
  * Hey it has nothing to do with jigsaw.syntax.Grammar.
  * 
@@ -23,6 +32,25 @@ public class CCGGrammar {
 	public Map<String, Set<CCGBinaryRule>> binaryRuleMap;
 	public Map<String, Set<CCGUnaryRule>> unaryRuleMap;
 
+	static final int BINARY_MAGIC = 0x43434747; // "CCGG"
+	// the first format had no version nor type names
+	static final int BINARY_VERSION = 2;
+
+	/**
+	 * Rules by category IDs of CategoryObject.CATEGORY_INDEX, in the order of
+	 * the rule sets. Built from the maps when looked up, and thrown away
+	 * whenever the maps change.
+	 */
+	private static class RuleIndex {
+		// packed (leftId, rightId) -> position in binaryRules
+		LongIntMap binaryIndex = new LongIntMap();
+		CCGBinaryRule[][] binaryRules;
+		// by the ID of the child
+		CCGUnaryRule[][] unaryRules;
+	}
+
+	private volatile RuleIndex _index = null;
+
 	private CCGGrammar() {
 		binaryRuleMap = new HashMap<String, Set<CCGBinaryRule>>();
 		unaryRuleMap = new HashMap<String, Set<CCGUnaryRule>>();
@@ -40,7 +68,62 @@ public class CCGGrammar {
 		return unaryRuleMap.get(unaryCat);
 	}
 
+	/**
+	 * Same as lookup(String, String), without building any string.
+	 * @param leftId
+	 * @param rightId
+	 * @return the rules in the order of the rule set, or null
+	 */
+	public CCGBinaryRule[] lookup(int leftId, int rightId) {
+		RuleIndex index = index();
+		int i = index.binaryIndex.indexOf(pack(leftId, rightId));
+		return i < 0 ? null : index.binaryRules[index.binaryIndex.valueAt(i)];
+	}
+
+	/**
+	 * Same as lookup(String), by the category ID of the child.
+	 */
+	public CCGUnaryRule[] lookup(int unaryCatId) {
+		CCGUnaryRule[][] rules = index().unaryRules;
+		return unaryCatId < rules.length ? rules[unaryCatId] : null;
+	}
+
+	private static long pack(int leftId, int rightId) {
+		return ((long) leftId << 32) | (rightId & 0xffffffffL);
+	}
+
+	private RuleIndex index() {
+		RuleIndex index = _index;
+		return index != null ? index : buildIndex();
+	}
+
+	private synchronized RuleIndex buildIndex() {
+		if (_index != null)
+			return _index;
+		RuleIndex index = new RuleIndex();
+		index.binaryRules = new CCGBinaryRule[binaryRuleMap.size()][];
+		for (Set<CCGBinaryRule> rules : binaryRuleMap.values()) {
+			CCGBinaryRule first = rules.iterator().next();
+			int i = index.binaryIndex.size();
+			index.binaryIndex.put(pack(CategoryObject.CATEGORY_INDEX.getIndex(first.left),
+					CategoryObject.CATEGORY_INDEX.getIndex(first.right)), i);
+			index.binaryRules[i] = rules.toArray(new CCGBinaryRule[rules.size()]);
+		}
+		int maxId = -1;
+		for (String child : unaryRuleMap.keySet())
+			maxId = Math.max(maxId, CategoryObject.CATEGORY_INDEX.getIndex(child));
+		index.unaryRules = new CCGUnaryRule[maxId + 1][];
+		for (Map.Entry<String, Set<CCGUnaryRule>> e : unaryRuleMap.entrySet()) {
+			Set<CCGUnaryRule> rules = e.getValue();
+			index.unaryRules[CategoryObject.CATEGORY_INDEX.getIndex(e.getKey())] = rules
+					.toArray(new CCGUnaryRule[rules.size()]);
+		}
+		_index = index;
+		return index;
+	}
+
 	public void remove(CCGRule r) {
+		_index = null;
 		if (r instanceof CCGBinaryRule)
 			binaryRuleMap.remove(r.key());
 		else if (r instanceof CCGUnaryRule)
@@ -65,6 +148,7 @@ public class CCGGrammar {
 	 * @param freq
 	 */
 	public void increSeenCount(String child, String res, int freq) {
+		_index = null;
 		Set<CCGUnaryRule> rules = lookup(child);
 		if (rules != null) {
 			boolean find = false;
@@ -102,6 +186,7 @@ public class CCGGrammar {
 	 */
 	public void increSeenCount(String left, String right, String result,
 			int head, int freq) {
+		_index = null;
 		Set<CCGBinaryRule> rules = lookup(left, right);
 		if (rules != null) {
 			boolean find = false;
@@ -132,25 +217,33 @@ public class CCGGrammar {
 	public void load(BufferedReader rs) throws IOException{
 		String s = rs.readLine();
 		while (s != null && s.trim().length() > 0) {
-			CCGBinaryRule bRule = new CCGBinaryRule(s.trim());
-			Set<CCGBinaryRule> rules = binaryRuleMap.get(bRule.key());
-			if (rules == null)
-				rules = new TreeSet<CCGBinaryRule>(CCGRule.freqComparator);
-			rules.add(bRule);
-			binaryRuleMap.put(bRule.key(), rules);
+			add(new CCGBinaryRule(s.trim()));
 			s = rs.readLine();
 		}
 		s = rs.readLine();
 		while (s != null && s.trim().length() > 0) {
-			CCGUnaryRule uRule = new CCGUnaryRule(s.trim());
-			Set<CCGUnaryRule> rules = unaryRuleMap.get(uRule.left);
-			if (rules == null)
-				rules = new TreeSet<CCGUnaryRule>(CCGRule.freqComparator);
-			rules.add(uRule);
-			unaryRuleMap.put(uRule.left, rules);
+			add(new CCGUnaryRule(s.trim()));
 			s = rs.readLine();
 		}
 	}
+
+	private void add(CCGBinaryRule bRule) {
+		_index = null;
+		Set<CCGBinaryRule> rules = binaryRuleMap.get(bRule.key());
+		if (rules == null)
+			rules = new TreeSet<CCGBinaryRule>(CCGRule.freqComparator);
+		rules.add(bRule);
+		binaryRuleMap.put(bRule.key(), rules);
+	}
+
+	private void add(CCGUnaryRule uRule) {
+		_index = null;
+		Set<CCGUnaryRule> rules = unaryRuleMap.get(uRule.left);
+		if (rules == null)
+			rules = new TreeSet<CCGUnaryRule>(CCGRule.freqComparator);
+		rules.add(uRule);
+		unaryRuleMap.put(uRule.left, rules);
+	}
 	
 	public static CCGGrammar loadFromStream(BufferedReader rs) throws IOException {
 		CCGGrammar gr = new CCGGrammar();
@@ -164,6 +257,121 @@ public class CCGGrammar {
 		return loadFromStream(br);
 	}
 
+	/**
+	 * Load a grammar written by dumpBinary. The file is mapped, and no rule
+	 * string has to be parsed or classified.
+	 * @param filename
+	 * @return
+	 * @throws IOException
+	 */
+	public static CCGGrammar loadFromBinaryFile(String filename) throws IOException {
+		RandomAccessFile raf = new RandomAccessFile(filename, "r");
+		try {
+			ByteBuffer bb = raf.getChannel().map(MapMode.READ_ONLY, 0, raf.length());
+			if (bb.getInt() != BINARY_MAGIC || bb.getInt() != BINARY_VERSION)
+				throw new IOException(filename + " is not a binary grammar of version " + BINARY_VERSION);
+			CCGBinaryRule.RuleType[] bTypes = new CCGBinaryRule.RuleType[bb.getInt()];
+			for (int i = 0; i < bTypes.length; ++i)
+				bTypes[i] = readType(CCGBinaryRule.RuleType.class, bb, filename);
+			CCGUnaryRule.RuleType[] uTypes = new CCGUnaryRule.RuleType[bb.getInt()];
+			for (int i = 0; i < uTypes.length; ++i)
+				uTypes[i] = readType(CCGUnaryRule.RuleType.class, bb, filename);
+			int numOfBinary = bb.getInt();
+			int numOfUnary = bb.getInt();
+			CCGGrammar gr = new CCGGrammar();
+			for (int i = 0; i < numOfBinary; ++i) {
+				int freq = bb.getInt();
+				CCGBinaryRule.RuleType type = bTypes[bb.getInt()];
+				int head = bb.getInt();
+				String result = readString(bb);
+				String left = readString(bb);
+				String right = readString(bb);
+				gr.add(new CCGBinaryRule(left, right, result, head, freq, type));
+			}
+			for (int i = 0; i < numOfUnary; ++i) {
+				int freq = bb.getInt();
+				CCGUnaryRule.RuleType type = uTypes[bb.getInt()];
+				String result = readString(bb);
+				String left = readString(bb);
+				gr.add(new CCGUnaryRule(left, result, freq, type));
+			}
+			return gr;
+		} finally {
+			raf.close();
+		}
+	}
+
+	private static <T extends Enum<T>> T readType(Class<T> types, ByteBuffer bb, String filename) throws IOException {
+		String name = readString(bb);
+		try {
+			return Enum.valueOf(types, name);
+		} catch (IllegalArgumentException e) {
+			throw new IOException("unknown rule type " + name + " in " + filename);
+		}
+	}
+
+	private static String readString(ByteBuffer bb) {
+		char[] chars = new char[bb.getInt()];
+		for (int i = 0; i < chars.length; ++i)
+			chars[i] = bb.getChar();
+		return new String(chars);
+	}
+
+	private static void writeString(DataOutputStream out, String s) throws IOException {
+		out.writeInt(s.length());
+		out.writeChars(s);
+	}
+
+	/**
+	 * Write the rules in the binary format read by loadFromBinaryFile.
+	 * The rule types are listed by name after the version, and every rule
+	 * refers to its type by the position in this list, so that a file
+	 * stays readable when the types are reordered or added.
+	 * @param f
+	 * @throws IOException
+	 */
+	public void dumpBinary(File f) throws IOException {
+		int numOfBinary = 0;
+		for (Set<CCGBinaryRule> s : binaryRuleMap.values())
+			numOfBinary += s.size();
+		int numOfUnary = 0;
+		for (Set<CCGUnaryRule> s : unaryRuleMap.values())
+			numOfUnary += s.size();
+		DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(f)));
+		try {
+			out.writeInt(BINARY_MAGIC);
+			out.writeInt(BINARY_VERSION);
+			out.writeInt(CCGBinaryRule.RuleType.values().length);
+			for (CCGBinaryRule.RuleType type : CCGBinaryRule.RuleType.values())
+				writeString(out, type.name());
+			out.writeInt(CCGUnaryRule.RuleType.values().length);
+			for (CCGUnaryRule.RuleType type : CCGUnaryRule.RuleType.values())
+				writeString(out, type.name());
+			out.writeInt(numOfBinary);
+			out.writeInt(numOfUnary);
+			for (Set<CCGBinaryRule> s : binaryRuleMap.values()) {
+				for (CCGBinaryRule rule : s) {
+					out.writeInt(rule.freq());
+					out.writeInt(rule.type.ordinal());
+					out.writeInt(rule.headChild);
+					writeString(out, rule.result);
+					writeString(out, rule.left);
+					writeString(out, rule.right);
+				}
+			}
+			for (Set<CCGUnaryRule> s : unaryRuleMap.values()) {
+				for (CCGUnaryRule rule : s) {
+					out.writeInt(rule.freq());
+					out.writeInt(rule.type.ordinal());
+					writeString(out, rule.result);
+					writeString(out, rule.left);
+				}
+			}
+		} finally {
+			out.close();
+		}
+	}
+
 	public void dump(Writer w) throws IOException {
 		for (Set<CCGBinaryRule> s : binaryRuleMap.values())
 			for (CCGBinaryRule rule : s)
@@ -48,6 +48,23 @@ public class CCGParseResult {
 	
 
 	
+	/**
+	 * The derivation in CCGBank (AUTO) format, preceded by the source line if any.
+	 * Incomplete parses are written as the fragments left on the stack.
+	 * @return
+	 */
+	public String toAutoString(){
+		StringBuffer sb = new StringBuffer();
+		if (source != null)
+			sb.append(source + "\n");
+		for (int i = 0; i < nodes.size(); ++i){
+			if (i > 0)
+				sb.append(" ");
+			sb.append(nodes.get(i).toString());
+		}
+		return sb.toString();
+	}
+	
 	public String toHTML(){
 		StringBuffer sb = new StringBuffer();
 		if (nodes.get(0).source != null) {
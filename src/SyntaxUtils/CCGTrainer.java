@@ -0,0 +1,215 @@
+package SyntaxUtils;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.PrintWriter;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import jigsaw.syntax.Lexicon;
+import LinguaView.syntax.CCGBankReader;
+import LinguaView.syntax.CCGNode;
+import fig.basic.LogInfo;
+
+/**
+ * Multi-epoch perceptron training of CCGChart over a gold treebank, on a pool
+ * of worker threads. Two strategies are supported:
+ * HOGWILD, all the workers update one shared classifier, whose weights are
+ * locked per feature stripe instead of as a whole;
+ * MIXING, iterative parameter mixing, every worker trains its own copy on a
+ * shard of the treebank and the copies are averaged after each epoch.
+ * With one thread both are the ordinary sequential training.
+ */
+public class CCGTrainer {
+	public enum Strategy {
+		HOGWILD, MIXING
+	}
+
+	private Lexicon _wordLexicon;
+	private Lexicon _posLexicon;
+	private String[] _interpretation;
+	private CCGGrammar _grammar;
+	private int _beam;
+	private int _numThreads;
+	private Strategy _strategy;
+	private boolean _averaged = true;
+
+	public CCGTrainer(Lexicon wordLex, Lexicon posLex, String[] interpretation,
+			CCGGrammar g, int beamSize, int numThreads, Strategy strategy) {
+		_wordLexicon = wordLex;
+		_posLexicon = posLex;
+		_interpretation = interpretation;
+		_grammar = g;
+		_beam = beamSize;
+		_numThreads = numThreads > 0 ? numThreads : 1;
+		_strategy = strategy;
+	}
+
+	/**
+	 * Return the averaged weights (default), or the last ones.
+	 * @param averaged
+	 */
+	public void setAveraged(boolean averaged) {
+		_averaged = averaged;
+	}
+
+	/**
+	 * Train a new classifier on the gold trees.
+	 * @param treebank
+	 * @param epochs
+	 * @return the classifier for parsing
+	 */
+	public PerceptronClassifier train(List<CCGNode> treebank, int epochs) {
+		ExecutorService pool = Executors.newFixedThreadPool(_numThreads);
+		try {
+			if (_strategy == Strategy.HOGWILD)
+				return trainHogwild(pool, treebank, epochs);
+			return trainMixing(pool, treebank, epochs);
+		} finally {
+			pool.shutdownNow();
+		}
+	}
+
+	private void trainOne(CCGNode tree, PerceptronClassifier c) {
+		CCGChart chart = new CCGChart(new SentenceForCCGParsing(tree), tree,
+				_wordLexicon, _posLexicon, _interpretation, _grammar, c, _beam);
+		chart.parse(true);
+		chart.updateClassifier();
+	}
+
+	private PerceptronClassifier trainHogwild(ExecutorService pool, final List<CCGNode> treebank, int epochs) {
+		final PerceptronClassifier c = new PerceptronClassifier();
+		c.setConcurrent(true);
+		if (_averaged)
+			c.startAveraging();
+		for (int epoch = 0; epoch < epochs; ++epoch) {
+			long start = System.nanoTime();
+			// the workers take the trees in order, one at a time
+			final AtomicInteger next = new AtomicInteger(0);
+			List<Callable<Object>> workers = new ArrayList<Callable<Object>>();
+			for (int t = 0; t < _numThreads; ++t) {
+				workers.add(new Callable<Object>() {
+					@Override
+					public Object call() {
+						int i;
+						while ((i = next.getAndIncrement()) < treebank.size())
+							trainOne(treebank.get(i), c);
+						return null;
+					}
+				});
+			}
+			runAll(pool, workers);
+			// no worker is running, the weights could be compacted
+			c.rebuild();
+			logEpoch(epoch, treebank.size(), start, c);
+		}
+		c.setConcurrent(false);
+		return _averaged ? c.finalizeAverage() : c;
+	}
+
+	private PerceptronClassifier trainMixing(ExecutorService pool, final List<CCGNode> treebank, int epochs) {
+		PerceptronClassifier mixed = new PerceptronClassifier();
+		mixed.useArrayWeights();
+		// average of the mixed weights over the epochs
+		PerceptronClassifier averaged = new PerceptronClassifier();
+		averaged.useArrayWeights();
+		for (int epoch = 0; epoch < epochs; ++epoch) {
+			long start = System.nanoTime();
+			final List<PerceptronClassifier> shards = new ArrayList<PerceptronClassifier>();
+			List<Callable<Object>> workers = new ArrayList<Callable<Object>>();
+			for (int t = 0; t < _numThreads; ++t) {
+				final PerceptronClassifier shard = mixed.clone();
+				final int offset = t;
+				shards.add(shard);
+				workers.add(new Callable<Object>() {
+					@Override
+					public Object call() {
+						for (int i = offset; i < treebank.size(); i += _numThreads)
+							trainOne(treebank.get(i), shard);
+						return null;
+					}
+				});
+			}
+			runAll(pool, workers);
+			mixed = PerceptronClassifier.mix(shards);
+			if (_averaged)
+				averaged.addScaled(mixed, 1.0f / epochs);
+			logEpoch(epoch, treebank.size(), start, mixed);
+		}
+		if (!_averaged)
+			return mixed;
+		averaged.rebuild();
+		return averaged;
+	}
+
+	private static void runAll(ExecutorService pool, List<Callable<Object>> workers) {
+		try {
+			for (Future<Object> f : pool.invokeAll(workers))
+				f.get();
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new RuntimeException("interrupted while training", e);
+		} catch (ExecutionException e) {
+			throw new RuntimeException("fail to train", e.getCause());
+		}
+	}
+
+	private static void logEpoch(int epoch, int numOfTrees, long start, PerceptronClassifier c) {
+		double seconds = (System.nanoTime() - start) / 1e9;
+		LogInfo.logs(String.format("epoch %d: %d trees in %.2f s, %.2f trees/s, %d features",
+				epoch + 1, numOfTrees, seconds, seconds > 0 ? numOfTrees / seconds : 0, c.numOfFeatures()));
+	}
+
+	/**
+	 * Read the trees of file in the file order, built on threads workers.
+	 * Every epoch goes over all of them, so they are all kept.
+	 */
+	private static List<CCGNode> readTreebank(File file, int threads) {
+		long start = System.nanoTime();
+		List<CCGNode> treebank = new ArrayList<CCGNode>();
+		CCGBankReader reader = new CCGBankReader(file, "UTF-8", threads, true);
+		try {
+			while (reader.hasNext())
+				treebank.add(reader.next());
+		} finally {
+			reader.close();
+		}
+		LogInfo.logs(String.format("%d trees read in %.2f s", treebank.size(),
+				(System.nanoTime() - start) / 1e9));
+		return treebank;
+	}
+
+	public static void main(String args[]) throws IOException {
+		if (args.length < 5) {
+			System.err.println("Usage: <grammar-file> <word-lexicon> <pos-lexicon> <treebank> <model-file> [epochs] [threads] [hogwild|mixing] [beam]");
+			System.exit(-1);
+		}
+		CCGGrammar g = ModelConverter.loadGrammar(args[0]);
+		Lexicon wordLex = new Lexicon();
+		wordLex.loadLexicon(args[1]);
+		Lexicon posLex = new Lexicon(wordLex.tags());
+		posLex.loadLexicon(args[2]);
+		String[] interpretation = wordLex.tags().symbols();
+		int epochs = args.length > 5 ? Integer.parseInt(args[5]) : 10;
+		int threads = args.length > 6 ? Integer.parseInt(args[6]) : Runtime.getRuntime().availableProcessors();
+		List<CCGNode> treebank = readTreebank(new File(args[3]), threads);
+		Strategy strategy = args.length > 7 ? Strategy.valueOf(args[7].toUpperCase()) : Strategy.HOGWILD;
+		int beam = args.length > 8 ? Integer.parseInt(args[8]) : 16;
+
+		CCGTrainer trainer = new CCGTrainer(wordLex, posLex, interpretation, g, beam, threads, strategy);
+		PerceptronClassifier c = trainer.train(treebank, epochs);
+		PrintWriter pw = new PrintWriter(new OutputStreamWriter(new FileOutputStream(args[4]), "UTF-8"));
+		c.dump(pw);
+		if (CCGChart.HASHED_FEATURES)
+			c.dumpHashed(pw);
+		pw.close();
+	}
+}
@@ -1,7 +1,5 @@
 package SyntaxUtils;
 
-import java.lang.reflect.Method;
-import java.util.EnumMap;
 import java.util.Map;
 
 import LinguaView.syntax.CategoryObject;
@@ -20,19 +18,24 @@ public class CCGUnaryRule extends CCGRule{
 		typeRaising, unaryTypeChangingSimple, unaryTypeChangingN, unaryTypeChangingV, unknown
 	};
 
-	public static EnumMap<RuleType, Method> typeMethod;
-	static {
-		typeMethod = new EnumMap<RuleType, Method>(RuleType.class);
-		RuleType[] types = RuleType.values();
-		for (int i = 0; i < types.length; ++i) {
-			try {
-				typeMethod.put(types[i], CategoryObject.class.getDeclaredMethod(types[i].toString(),
-								CategoryObject.class, CategoryObject.class, Map.class));
-			} catch (SecurityException e) {
-				e.printStackTrace();
-			} catch (NoSuchMethodException e) {
-				e.printStackTrace();
-			}
+	private static final RuleType[] TYPES = RuleType.values();
+
+	/**
+	 * Check if child -> res by the rule of type, and unify the categories.
+	 */
+	public static boolean apply(RuleType type, CategoryObject child,
+			CategoryObject res, Map<CoindexedObject, CoindexedObject> indices) {
+		switch (type) {
+		case typeRaising:
+			return CategoryObject.typeRaising(child, res, indices);
+		case unaryTypeChangingSimple:
+			return CategoryObject.unaryTypeChangingSimple(child, res, indices);
+		case unaryTypeChangingN:
+			return CategoryObject.unaryTypeChangingN(child, res, indices);
+		case unaryTypeChangingV:
+			return CategoryObject.unaryTypeChangingV(child, res, indices);
+		default:
+			return false;
 		}
 	}
 
@@ -54,6 +57,17 @@ public class CCGUnaryRule extends CCGRule{
 		headChild = 0;
 	}
 
+	/**
+	 * A rule whose type is already known, e.g. read from a binary grammar.
+	 */
+	CCGUnaryRule(String left, String result, int freq, RuleType type) {
+		this.left = left;
+		this.result = result;
+		this.type = type;
+		this.freq = freq;
+		headChild = 0;
+	}
+
 	public CCGUnaryRule(String left, String result, int freq) {
 		this(left, result);
 		this.freq = freq;
@@ -63,13 +77,11 @@ public class CCGUnaryRule extends CCGRule{
 	protected static RuleType classifier(String left, String result) {
 		CategoryObject lc = CategoryObject.fromPlainCat(left);
 		CategoryObject res = CategoryObject.fromPlainCat(result);
-		RuleType types[] = RuleType.values();
-		for (int i = 0; i < types.length; ++i) {
-			Method m = typeMethod.get(types[i]);
+		for (int i = 0; i < TYPES.length; ++i) {
 			try {
-				if ((Boolean) (m.invoke(null, lc, res, null)))
-					return types[i];
-			} catch (Exception e) {
+				if (apply(TYPES[i], lc, res, null))
+					return TYPES[i];
+			} catch (RuntimeException e) {
 				e.printStackTrace();
 			}
 		}
@@ -83,11 +95,10 @@ public class CCGUnaryRule extends CCGRule{
 		//TODO
 //		System.err.println(type);
 		CategoryObject res = CategoryObject.fromPlainCat(result);
-		Method m = typeMethod.get(type);
 		try {
-			if (m!= null &&(Boolean) m.invoke(null, child, res, indices))
+			if (apply(type, child, res, indices))
 				return res;
-		} catch (Exception e) {
+		} catch (RuntimeException e) {
 			e.printStackTrace();
 		}
 		return null;
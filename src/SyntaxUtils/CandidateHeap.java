@@ -0,0 +1,98 @@
+package SyntaxUtils;
+
+/**
+ * Max-heap of int candidates by double scores, kept in two primitive arrays.
+ * It sifts exactly as fig.basic.PriorityQueue does, so candidates of equal
+ * scores come out in the same order, but no object is allocated per
+ * candidate.
+ */
+public class CandidateHeap {
+	private int[] _ids;
+	private double[] _scores;
+	private int _size = 0;
+
+	public CandidateHeap(int capacity) {
+		capacity = capacity > 0 ? capacity : 1;
+		_ids = new int[capacity];
+		_scores = new double[capacity];
+	}
+
+	public void add(int id, double score) {
+		if (_size == _ids.length) {
+			int[] ids = new int[_size * 2 + 1];
+			double[] scores = new double[_size * 2 + 1];
+			System.arraycopy(_ids, 0, ids, 0, _size);
+			System.arraycopy(_scores, 0, scores, 0, _size);
+			_ids = ids;
+			_scores = scores;
+		}
+		_ids[_size] = id;
+		_scores[_size] = score;
+		heapifyUp(_size);
+		++_size;
+	}
+
+	public boolean hasNext() {
+		return _size > 0;
+	}
+
+	public int size() {
+		return _size;
+	}
+
+	/**
+	 * @return the score of the best candidate
+	 */
+	public double getPriority() {
+		return _scores[0];
+	}
+
+	/**
+	 * Remove the best candidate.
+	 * @return its id
+	 */
+	public int next() {
+		int id = _ids[0];
+		swap(0, _size - 1);
+		--_size;
+		heapifyDown(0);
+		return id;
+	}
+
+	private void heapifyUp(int i) {
+		while (i > 0) {
+			int parent = (i - 1) / 2;
+			if (!(_scores[i] > _scores[parent]))
+				return;
+			swap(i, parent);
+			i = parent;
+		}
+	}
+
+	private void heapifyDown(int i) {
+		while (true) {
+			int max = i;
+			int left = 2 * i + 1;
+			if (left < _size) {
+				if (_scores[left] > _scores[i])
+					max = left;
+				int right = 2 * i + 2;
+				if (right < _size && _scores[right] > _scores[i] && _scores[right] > _scores[left])
+					max = right;
+			}
+			if (max == i)
+				return;
+			swap(i, max);
+			i = max;
+		}
+	}
+
+	private void swap(int i, int j) {
+		int id = _ids[i];
+		_ids[i] = _ids[j];
+		_ids[j] = id;
+		double score = _scores[i];
+		_scores[i] = _scores[j];
+		_scores[j] = score;
+	}
+}
@@ -5,5 +5,7 @@ package SyntaxUtils;
  */
 public interface FeatureExtractor<T> {
 	public abstract FeatureSet getFeatures(T instance);
+	/** the same features as getFeatures, hashed into 64-bit IDs */
+	public abstract HashedFeatureSet getHashedFeatures(T instance);
 	public abstract int windows();
 }
@@ -0,0 +1,39 @@
+package SyntaxUtils;
+
+/**
+ * Feature vector keyed by 64-bit hashed feature IDs, the counterpart of
+ * FeatureSet without any String.
+ */
+@SuppressWarnings("serial")
+public class HashedFeatureSet extends LongIntMap {
+	/** atoms (words, POS, categories, ...) the hashed features are built from */
+	public static final StringIndexer ATOMS = new StringIndexer();
+
+	public HashedFeatureSet() {
+		super(64);
+	}
+
+	public HashedFeatureSet(HashedFeatureSet another) {
+		super(another);
+	}
+
+	// same as FeatureSet, put accumulates the value
+	@Override
+	public void put(long feature, int value) {
+		adjust(feature, value);
+	}
+
+	public void put(long feature) {
+		adjust(feature, 1);
+	}
+
+	public void accumulate(HashedFeatureSet fs) {
+		for (int i = 0; i < fs.size(); ++i)
+			adjust(fs.keyAt(i), fs.valueAt(i));
+	}
+
+	public void substract(HashedFeatureSet fs) {
+		for (int i = 0; i < fs.size(); ++i)
+			adjust(fs.keyAt(i), -fs.valueAt(i));
+	}
+}
@@ -0,0 +1,188 @@
+package SyntaxUtils;
+
+import java.io.Serializable;
+import java.util.Arrays;
+
+/**
+ * Open-addressing map from long to int, without boxing.
+ * Entries are kept in insertion order in two dense arrays, the hash table
+ * only holds positions in these arrays, so iterating over the map is just
+ * a loop from 0 to size().
+ * Missing keys are mapped to 0.
+ * One thread may put new keys while others call indexOf, containsKey, get
+ * and valueAt without locking: the arrays are only replaced by grown
+ * copies, and _size is written last, so a reader never sees a position
+ * before its key and value. The other updates are not thread-safe.
+ */
+public class LongIntMap implements Serializable {
+	private static final long serialVersionUID = 2093485126730146641L;
+
+	private volatile long[] _keys;
+	private volatile int[] _values;
+	private volatile int _size = 0;
+	/* position + 1 in _keys, 0 for an empty bucket */
+	private volatile int[] _table;
+
+	public LongIntMap() {
+		this(16);
+	}
+
+	public LongIntMap(int expectedSize) {
+		int capacity = 4;
+		while (capacity < expectedSize * 2)
+			capacity <<= 1;
+		_table = new int[capacity];
+		_keys = new long[capacity / 2];
+		_values = new int[capacity / 2];
+	}
+
+	public LongIntMap(LongIntMap another) {
+		_keys = another._keys.clone();
+		_values = another._values.clone();
+		_size = another._size;
+		_table = another._table.clone();
+	}
+
+	private static int bucket(int[] table, long[] keys, long key) {
+		int mask = table.length - 1;
+		int b = (int) StringIndexer.mix(key) & mask;
+		while (table[b] != 0 && keys[table[b] - 1] != key)
+			b = (b + 1) & mask;
+		return b;
+	}
+
+	/**
+	 * @return the position of key in insertion order, or -1
+	 */
+	public int indexOf(long key) {
+		// _size first, the positions from it on may not be written yet
+		int size = _size;
+		int[] table = _table;
+		long[] keys = _keys;
+		int mask = table.length - 1;
+		int b = (int) StringIndexer.mix(key) & mask;
+		for (int i; (i = table[b] - 1) >= 0; b = (b + 1) & mask) {
+			if (i < size && keys[i] == key)
+				return i;
+		}
+		return -1;
+	}
+
+	public boolean containsKey(long key) {
+		return indexOf(key) >= 0;
+	}
+
+	public int get(long key) {
+		int i = indexOf(key);
+		return i < 0 ? 0 : _values[i];
+	}
+
+	public void put(long key, int value) {
+		int[] table = _table;
+		int b = bucket(table, _keys, key);
+		if (table[b] != 0) {
+			_values[table[b] - 1] = value;
+			return;
+		}
+		append(table, b, key, value);
+	}
+
+	/**
+	 * Add delta to the value of key
+	 * @return the new value
+	 */
+	public int adjust(long key, int delta) {
+		int[] table = _table;
+		int b = bucket(table, _keys, key);
+		if (table[b] != 0)
+			return _values[table[b] - 1] += delta;
+		append(table, b, key, delta);
+		return delta;
+	}
+
+	/**
+	 * Add key to the end of the arrays and to bucket b of table.
+	 */
+	private void append(int[] table, int b, long key, int value) {
+		int size = _size;
+		long[] keys = _keys;
+		int[] values = _values;
+		if (size == keys.length) {
+			keys = Arrays.copyOf(keys, size * 2);
+			values = Arrays.copyOf(values, size * 2);
+			_keys = keys;
+			_values = values;
+		}
+		keys[size] = key;
+		values[size] = value;
+		table[b] = size + 1;
+		if ((size + 1) * 2 > table.length)
+			rehash(table.length * 2, keys, size + 1);
+		_size = size + 1;
+	}
+
+	private void rehash(int capacity, long[] keys, int size) {
+		int[] table = new int[capacity];
+		for (int i = 0; i < size; ++i)
+			table[bucket(table, keys, keys[i])] = i + 1;
+		_table = table;
+	}
+
+	public int size() {
+		return _size;
+	}
+
+	public boolean isEmpty() {
+		return _size == 0;
+	}
+
+	public long keyAt(int i) {
+		return _keys[i];
+	}
+
+	public int valueAt(int i) {
+		return _values[i];
+	}
+
+	public void setValueAt(int i, int value) {
+		_values[i] = value;
+	}
+
+	public void clear() {
+		_size = 0;
+		Arrays.fill(_table, 0);
+	}
+
+	/**
+	 * Remove all entries valued 0.
+	 */
+	public void removeZeros() {
+		long[] keys = _keys;
+		int[] values = _values;
+		int size = _size;
+		int j = 0;
+		for (int i = 0; i < size; ++i) {
+			if (values[i] == 0)
+				continue;
+			keys[j] = keys[i];
+			values[j] = values[i];
+			++j;
+		}
+		if (j == size)
+			return;
+		_size = j;
+		rehash(_table.length, keys, j);
+	}
+
+	@Override
+	public String toString() {
+		StringBuffer sb = new StringBuffer("{");
+		for (int i = 0; i < _size; ++i) {
+			if (i > 0)
+				sb.append(", ");
+			sb.append(Long.toHexString(_keys[i]) + "=" + _values[i]);
+		}
+		sb.append("}");
+		return sb.toString();
+	}
+}
@@ -0,0 +1,293 @@
+package SyntaxUtils;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.io.Writer;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileChannel.MapMode;
+import java.util.Map.Entry;
+
+import org.ardverk.collection.PatriciaTrie;
+
+/**
+ * Read-only weights of PerceptronClassifier, mapped from a binary file with
+ * FileChannel.map. Nothing is parsed when the file is opened, the features
+ * are looked up in place and the pages are read by the OS on demand.
+ *
+ * The file is made of a header, two open-addressing tables and a pool of
+ * characters:
+ * header: MAGIC, VERSION, numOfStrings, stringCapacity, numOfHashed, hashedCapacity;
+ * string table: stringCapacity slots of (hash, offset, length, weight), the
+ * feature string is pool[offset, offset + length), length is -1 for an empty slot;
+ * hashed table: hashedCapacity slots of (key, weight, used);
+ * pool: the UTF-16 characters of all the feature strings.
+ * Every part must be smaller than 2G bytes.
+ */
+public class MappedWeights {
+	static final int MAGIC = 0x43434757; // "CCGW"
+	static final int VERSION = 1;
+	private static final int HEADER_SIZE = 32;
+	private static final int STRING_SLOT = 16;
+	private static final int HASHED_SLOT = 16;
+
+	private ByteBuffer _strings;
+	private ByteBuffer _hashed;
+	private CharBuffer _pool;
+	private int _numOfStrings;
+	private int _stringMask;
+	private int _numOfHashed;
+	private int _hashedMask;
+
+	private MappedWeights() {
+	}
+
+	/**
+	 * Map a file written by write().
+	 */
+	public static MappedWeights open(File f) throws IOException {
+		RandomAccessFile raf = new RandomAccessFile(f, "r");
+		try {
+			FileChannel fc = raf.getChannel();
+			MappedByteBuffer header = fc.map(MapMode.READ_ONLY, 0, HEADER_SIZE);
+			if (header.getInt() != MAGIC || header.getInt() != VERSION)
+				throw new IOException(f + " is not a binary model of version " + VERSION);
+			MappedWeights w = new MappedWeights();
+			w._numOfStrings = header.getInt();
+			int stringCapacity = header.getInt();
+			w._numOfHashed = header.getInt();
+			int hashedCapacity = header.getInt();
+			long numOfChars = header.getLong();
+			w._stringMask = stringCapacity - 1;
+			w._hashedMask = hashedCapacity - 1;
+
+			long offset = HEADER_SIZE;
+			w._strings = fc.map(MapMode.READ_ONLY, offset, (long) stringCapacity * STRING_SLOT);
+			offset += (long) stringCapacity * STRING_SLOT;
+			w._hashed = fc.map(MapMode.READ_ONLY, offset, (long) hashedCapacity * HASHED_SLOT);
+			offset += (long) hashedCapacity * HASHED_SLOT;
+			w._pool = fc.map(MapMode.READ_ONLY, offset, numOfChars * 2).asCharBuffer();
+			// the mappings stay valid after the channel is closed
+			return w;
+		} finally {
+			raf.close();
+		}
+	}
+
+	/**
+	 * Write the non-zero weights in the binary format.
+	 */
+	public static void write(ArrayWeights weights, File f) throws IOException {
+		int numOfStrings = 0;
+		long numOfChars = 0;
+		StringIntMap stringIndex = weights.stringIndex();
+		for (int k = 0; k < stringIndex.size(); ++k) {
+			if (weights.weightAt(stringIndex.valueAt(k)) == 0)
+				continue;
+			++numOfStrings;
+			numOfChars += stringIndex.keyAt(k).length();
+		}
+		int numOfHashed = 0;
+		LongIntMap hashedIndex = weights.hashedIndex();
+		for (int k = 0; k < hashedIndex.size(); ++k) {
+			if (weights.weightAt(hashedIndex.valueAt(k)) != 0)
+				++numOfHashed;
+		}
+		int stringCapacity = capacity(numOfStrings);
+		int hashedCapacity = capacity(numOfHashed);
+		long stringBytes = (long) stringCapacity * STRING_SLOT;
+		long hashedBytes = (long) hashedCapacity * HASHED_SLOT;
+		if (stringBytes > Integer.MAX_VALUE || hashedBytes > Integer.MAX_VALUE || numOfChars * 2 > Integer.MAX_VALUE)
+			throw new IOException("model is too large for the binary format");
+
+		if (f.exists() && !f.delete())
+			throw new IOException("fail to overwrite " + f);
+		RandomAccessFile raf = new RandomAccessFile(f, "rw");
+		try {
+			FileChannel fc = raf.getChannel();
+			MappedByteBuffer header = fc.map(MapMode.READ_WRITE, 0, HEADER_SIZE);
+			header.putInt(MAGIC).putInt(VERSION);
+			header.putInt(numOfStrings).putInt(stringCapacity);
+			header.putInt(numOfHashed).putInt(hashedCapacity);
+			header.putLong(numOfChars);
+			header.force();
+
+			long offset = HEADER_SIZE;
+			MappedByteBuffer strings = fc.map(MapMode.READ_WRITE, offset, stringBytes);
+			offset += stringBytes;
+			MappedByteBuffer hashed = fc.map(MapMode.READ_WRITE, offset, hashedBytes);
+			offset += hashedBytes;
+			MappedByteBuffer poolBytes = fc.map(MapMode.READ_WRITE, offset, numOfChars * 2);
+			CharBuffer pool = poolBytes.asCharBuffer();
+
+			int mask = stringCapacity - 1;
+			for (int b = 0; b < stringCapacity; ++b)
+				strings.putInt(b * STRING_SLOT + 8, -1);
+			for (int k = 0; k < stringIndex.size(); ++k) {
+				float weight = weights.weightAt(stringIndex.valueAt(k));
+				if (weight == 0)
+					continue;
+				String feature = stringIndex.keyAt(k);
+				int hash = feature.hashCode();
+				int b = bucket(hash, mask);
+				while (strings.getInt(b * STRING_SLOT + 8) >= 0)
+					b = (b + 1) & mask;
+				int slot = b * STRING_SLOT;
+				strings.putInt(slot, hash);
+				strings.putInt(slot + 4, pool.position());
+				strings.putInt(slot + 8, feature.length());
+				strings.putFloat(slot + 12, weight);
+				pool.put(feature);
+			}
+
+			mask = hashedCapacity - 1;
+			for (int k = 0; k < hashedIndex.size(); ++k) {
+				float weight = weights.weightAt(hashedIndex.valueAt(k));
+				if (weight == 0)
+					continue;
+				long key = hashedIndex.keyAt(k);
+				int b = bucket(key, mask);
+				while (hashed.getInt(b * HASHED_SLOT + 12) != 0)
+					b = (b + 1) & mask;
+				int slot = b * HASHED_SLOT;
+				hashed.putLong(slot, key);
+				hashed.putFloat(slot + 8, weight);
+				hashed.putInt(slot + 12, 1);
+			}
+			strings.force();
+			hashed.force();
+			poolBytes.force();
+		} finally {
+			raf.close();
+		}
+	}
+
+	// a power of 2, and at most half full
+	private static int capacity(int size) {
+		int capacity = 2;
+		while (capacity < size * 2)
+			capacity <<= 1;
+		return capacity;
+	}
+
+	private static int bucket(long hash, int mask) {
+		return (int) StringIndexer.mix(hash) & mask;
+	}
+
+	/**
+	 * @return the slot of the feature in the string table, or -1
+	 */
+	private int slotOf(String feature) {
+		int hash = feature.hashCode();
+		int length = feature.length();
+		int b = bucket(hash, _stringMask);
+		while (true) {
+			int slot = b * STRING_SLOT;
+			int l = _strings.getInt(slot + 8);
+			if (l < 0)
+				return -1;
+			if (l == length && _strings.getInt(slot) == hash && matches(_strings.getInt(slot + 4), feature))
+				return slot;
+			b = (b + 1) & _stringMask;
+		}
+	}
+
+	private boolean matches(int offset, String feature) {
+		for (int i = 0; i < feature.length(); ++i) {
+			if (_pool.get(offset + i) != feature.charAt(i))
+				return false;
+		}
+		return true;
+	}
+
+	private int slotOf(long feature) {
+		int b = bucket(feature, _hashedMask);
+		while (true) {
+			int slot = b * HASHED_SLOT;
+			if (_hashed.getInt(slot + 12) == 0)
+				return -1;
+			if (_hashed.getLong(slot) == feature)
+				return slot;
+			b = (b + 1) & _hashedMask;
+		}
+	}
+
+	public float get(String feature) {
+		int slot = slotOf(feature);
+		return slot < 0 ? 0 : _strings.getFloat(slot + 12);
+	}
+
+	public float get(long feature) {
+		int slot = slotOf(feature);
+		return slot < 0 ? 0 : _hashed.getFloat(slot + 8);
+	}
+
+	public double score(PatriciaTrie<String, Integer> feats) {
+		double score = 0;
+		for (Entry<String, Integer> e : feats.entrySet())
+			score += e.getValue() * get(e.getKey());
+		return score;
+	}
+
+	public double score(HashedFeatureSet feats) {
+		double score = 0;
+		for (int k = 0; k < feats.size(); ++k)
+			score += feats.valueAt(k) * get(feats.keyAt(k));
+		return score;
+	}
+
+	/**
+	 * number of features
+	 */
+	public int size() {
+		return _numOfStrings + _numOfHashed;
+	}
+
+	private String featureAt(int slot) {
+		int offset = _strings.getInt(slot + 4);
+		int length = _strings.getInt(slot + 8);
+		char[] chars = new char[length];
+		for (int i = 0; i < length; ++i)
+			chars[i] = _pool.get(offset + i);
+		return new String(chars);
+	}
+
+	/**
+	 * Read all the weights into memory, e.g. to go on training.
+	 */
+	public ArrayWeights toArrayWeights() {
+		ArrayWeights w = new ArrayWeights();
+		for (int b = 0; b <= _stringMask; ++b) {
+			int slot = b * STRING_SLOT;
+			if (_strings.getInt(slot + 8) >= 0)
+				w.add(featureAt(slot), _strings.getFloat(slot + 12));
+		}
+		for (int b = 0; b <= _hashedMask; ++b) {
+			int slot = b * HASHED_SLOT;
+			if (_hashed.getInt(slot + 12) != 0)
+				w.add(_hashed.getLong(slot), _hashed.getFloat(slot + 8));
+		}
+		return w;
+	}
+
+	public void dump(Writer w) throws IOException {
+		for (int b = 0; b <= _stringMask; ++b) {
+			int slot = b * STRING_SLOT;
+			if (_strings.getInt(slot + 8) >= 0)
+				w.write(ArrayWeights.format(_strings.getFloat(slot + 12)) + "\t" + featureAt(slot) + "\n");
+		}
+		w.write("\n");
+	}
+
+	public void dumpHashed(Writer w) throws IOException {
+		for (int b = 0; b <= _hashedMask; ++b) {
+			int slot = b * HASHED_SLOT;
+			if (_hashed.getInt(slot + 12) != 0)
+				w.write(ArrayWeights.format(_hashed.getFloat(slot + 8)) + "\t" + _hashed.getLong(slot) + "\n");
+		}
+		w.write("\n");
+	}
+}
@@ -0,0 +1,77 @@
+package SyntaxUtils;
+
+import java.io.BufferedReader;
+import java.io.DataInputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+
+import fig.basic.LogInfo;
+
+/**
+ * Convert the text dumps of PerceptronClassifier and CCGGrammar into the
+ * binary formats of MappedWeights and CCGGrammar.dumpBinary, and load
+ * either format.
+ */
+public class ModelConverter {
+	private static int magic(String filename) throws IOException {
+		File f = new File(filename);
+		if (f.length() < 4)
+			return 0;
+		DataInputStream in = new DataInputStream(new FileInputStream(f));
+		try {
+			return in.readInt();
+		} finally {
+			in.close();
+		}
+	}
+
+	/**
+	 * Load a text or a binary model, the binary one is mapped.
+	 */
+	public static PerceptronClassifier loadModel(String filename) throws IOException {
+		PerceptronClassifier c = new PerceptronClassifier();
+		if (magic(filename) == MappedWeights.MAGIC) {
+			c.loadBinary(new File(filename));
+			return c;
+		}
+		// weights are loaded into the array store directly, no trie is built
+		c.useArrayWeights();
+		BufferedReader br = new BufferedReader(new InputStreamReader(new FileInputStream(filename), "UTF-8"));
+		try {
+			c.load(br);
+			// the hashed features, if any, follow the string ones
+			c.loadHashed(br);
+		} finally {
+			br.close();
+		}
+		return c;
+	}
+
+	/**
+	 * Load a text or a binary grammar.
+	 */
+	public static CCGGrammar loadGrammar(String filename) throws IOException {
+		if (magic(filename) == CCGGrammar.BINARY_MAGIC)
+			return CCGGrammar.loadFromBinaryFile(filename);
+		return CCGGrammar.loadFromFile(filename);
+	}
+
+	public static void main(String args[]) throws IOException {
+		if (args.length < 3 || !(args[0].equals("model") || args[0].equals("grammar"))) {
+			System.err.println("Usage: model|grammar <text-file> <binary-file>");
+			System.exit(-1);
+		}
+		long start = System.nanoTime();
+		if (args[0].equals("model")) {
+			PerceptronClassifier c = loadModel(args[1]);
+			c.dumpBinary(new File(args[2]));
+			LogInfo.logs(c.numOfFeatures() + " features converted");
+		} else {
+			CCGGrammar g = loadGrammar(args[1]);
+			g.dumpBinary(new File(args[2]));
+		}
+		LogInfo.logs(String.format("converted in %.2f s", (System.nanoTime() - start) / 1e9));
+	}
+}
@@ -0,0 +1,89 @@
+package SyntaxUtils;
+
+import java.util.ArrayList;
+import java.util.EmptyStackException;
+import java.util.Iterator;
+import java.util.List;
+
+import LinguaView.syntax.CCGNode;
+
+/**
+ * Immutable stack of CCGNodes, linked from the top to the bottom. push and
+ * pop return a new stack and share the rest of the nodes, so the states of
+ * the beam share their common tails and a state is copied in O(1).
+ */
+public final class NodeStack implements Iterable<CCGNode> {
+	public static final NodeStack EMPTY = new NodeStack(null, null, 0);
+
+	private final CCGNode _top;
+	private final NodeStack _rest;
+	private final int _size;
+
+	private NodeStack(CCGNode top, NodeStack rest, int size) {
+		_top = top;
+		_rest = rest;
+		_size = size;
+	}
+
+	public NodeStack push(CCGNode cn) {
+		return new NodeStack(cn, this, _size + 1);
+	}
+
+	/**
+	 * @return the stack without the top node
+	 */
+	public NodeStack pop() {
+		if (_size == 0)
+			throw new EmptyStackException();
+		return _rest;
+	}
+
+	public CCGNode peek() {
+		if (_size == 0)
+			throw new EmptyStackException();
+		return _top;
+	}
+
+	/**
+	 * @param depth 0 for the top node
+	 * @return the node at depth, or null if the stack is not so deep
+	 */
+	public CCGNode peek(int depth) {
+		NodeStack s = this;
+		for (int i = 0; i < depth && s._size > 0; ++i)
+			s = s._rest;
+		return s._top;
+	}
+
+	public int size() {
+		return _size;
+	}
+
+	public boolean isEmpty() {
+		return _size == 0;
+	}
+
+	/**
+	 * @return the nodes from the bottom to the top
+	 */
+	public List<CCGNode> toList() {
+		CCGNode[] nodes = new CCGNode[_size];
+		NodeStack s = this;
+		for (int i = _size - 1; i >= 0; --i) {
+			nodes[i] = s._top;
+			s = s._rest;
+		}
+		List<CCGNode> list = new ArrayList<CCGNode>(_size);
+		for (CCGNode cn : nodes)
+			list.add(cn);
+		return list;
+	}
+
+	/**
+	 * from the bottom to the top, like java.util.Stack
+	 */
+	@Override
+	public Iterator<CCGNode> iterator() {
+		return toList().iterator();
+	}
+}
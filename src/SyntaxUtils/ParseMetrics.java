@@ -0,0 +1,189 @@
+package SyntaxUtils;
+
+import java.util.Locale;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Counters, histograms and timers of the parser, shared by all the charts
+ * and threads. They are collected only when an instance is installed as
+ * CCGChart.METRICS, otherwise the parser only tests that field for null.
+ * A snapshot is exported by toJson() or toString().
+ */
+public class ParseMetrics {
+	public enum Counter {
+		SENTENCES, STEPS, STATES_EXPANDED, CANDIDATES, PRUNED_EQUIVALENT,
+		PACKED, RETAINED, RE_SEARCHES, EARLY_UPDATES, UNKNOWN_WORDS
+	}
+
+	public enum Timer {
+		FEATURES, SCORING, RULES, SENTENCE
+	}
+
+	public enum Distribution {
+		STATES_PER_STEP, CANDIDATES_PER_STEP, STEPS_PER_SENTENCE, SENTENCE_MICROS
+	}
+
+	private final AtomicLongArray _counters = new AtomicLongArray(Counter.values().length);
+	private final AtomicLongArray _nanos = new AtomicLongArray(Timer.values().length);
+	private final AtomicLongArray _calls = new AtomicLongArray(Timer.values().length);
+	private final Histogram[] _histograms = new Histogram[Distribution.values().length];
+
+	public ParseMetrics() {
+		for (int i = 0; i < _histograms.length; ++i)
+			_histograms[i] = new Histogram();
+	}
+
+	public void increment(Counter c) {
+		_counters.incrementAndGet(c.ordinal());
+	}
+
+	public void add(Counter c, long n) {
+		_counters.addAndGet(c.ordinal(), n);
+	}
+
+	public long count(Counter c) {
+		return _counters.get(c.ordinal());
+	}
+
+	/**
+	 * Add a call of t which takes nanos.
+	 */
+	public void time(Timer t, long nanos) {
+		_nanos.addAndGet(t.ordinal(), nanos);
+		_calls.incrementAndGet(t.ordinal());
+	}
+
+	public long nanos(Timer t) {
+		return _nanos.get(t.ordinal());
+	}
+
+	public long calls(Timer t) {
+		return _calls.get(t.ordinal());
+	}
+
+	public void record(Distribution d, long value) {
+		_histograms[d.ordinal()].record(value);
+	}
+
+	public Histogram histogram(Distribution d) {
+		return _histograms[d.ordinal()];
+	}
+
+	public void reset() {
+		for (int i = 0; i < _counters.length(); ++i)
+			_counters.set(i, 0);
+		for (int i = 0; i < _nanos.length(); ++i) {
+			_nanos.set(i, 0);
+			_calls.set(i, 0);
+		}
+		for (Histogram h : _histograms)
+			h.reset();
+	}
+
+	/**
+	 * Histogram of non-negative values in power-of-two buckets: bucket 0
+	 * holds 0, bucket i holds the values from 2^(i-1) to 2^i - 1.
+	 */
+	public static class Histogram {
+		private static final int NUM_OF_BUCKETS = 64;
+
+		private final AtomicLongArray _buckets = new AtomicLongArray(NUM_OF_BUCKETS);
+		private final AtomicLong _count = new AtomicLong();
+		private final AtomicLong _sum = new AtomicLong();
+		private final AtomicLong _max = new AtomicLong();
+
+		public void record(long value) {
+			if (value < 0)
+				value = 0;
+			_buckets.incrementAndGet(NUM_OF_BUCKETS - Long.numberOfLeadingZeros(value));
+			_count.incrementAndGet();
+			_sum.addAndGet(value);
+			long max = _max.get();
+			while (value > max && !_max.compareAndSet(max, value))
+				max = _max.get();
+		}
+
+		public long count() {
+			return _count.get();
+		}
+
+		public long max() {
+			return _max.get();
+		}
+
+		public double mean() {
+			long count = _count.get();
+			return count > 0 ? (double) _sum.get() / count : 0;
+		}
+
+		/**
+		 * @param p from 0 to 1
+		 * @return the upper bound of the bucket of the p-quantile
+		 */
+		public long percentile(double p) {
+			long rank = (long) Math.ceil(p * _count.get());
+			long seen = 0;
+			for (int i = 0; i < NUM_OF_BUCKETS; ++i) {
+				seen += _buckets.get(i);
+				if (seen >= rank && seen > 0)
+					return Math.min(i == 0 ? 0 : (1L << i) - 1, max());
+			}
+			return max();
+		}
+
+		void reset() {
+			for (int i = 0; i < NUM_OF_BUCKETS; ++i)
+				_buckets.set(i, 0);
+			_count.set(0);
+			_sum.set(0);
+			_max.set(0);
+		}
+	}
+
+	public String toJson() {
+		StringBuffer sb = new StringBuffer("{\"counters\":{");
+		for (Counter c : Counter.values()) {
+			if (c.ordinal() > 0)
+				sb.append(',');
+			sb.append('"').append(c.name().toLowerCase()).append("\":").append(count(c));
+		}
+		sb.append("},\"timers\":{");
+		for (Timer t : Timer.values()) {
+			if (t.ordinal() > 0)
+				sb.append(',');
+			sb.append('"').append(t.name().toLowerCase()).append("\":{\"calls\":").append(calls(t))
+					.append(",\"ms\":").append(String.format(Locale.ROOT, "%.3f", nanos(t) / 1e6)).append('}');
+		}
+		sb.append("},\"histograms\":{");
+		for (Distribution d : Distribution.values()) {
+			Histogram h = histogram(d);
+			if (d.ordinal() > 0)
+				sb.append(',');
+			sb.append('"').append(d.name().toLowerCase()).append("\":{\"count\":").append(h.count())
+					.append(",\"mean\":").append(String.format(Locale.ROOT, "%.3f", h.mean()))
+					.append(",\"p50\":").append(h.percentile(0.5))
+					.append(",\"p90\":").append(h.percentile(0.9))
+					.append(",\"p99\":").append(h.percentile(0.99))
+					.append(",\"max\":").append(h.max()).append('}');
+		}
+		sb.append("}}");
+		return sb.toString();
+	}
+
+	@Override
+	public String toString() {
+		StringBuffer sb = new StringBuffer();
+		for (Counter c : Counter.values())
+			sb.append(String.format("%-20s %d%n", c.name().toLowerCase(), count(c)));
+		for (Timer t : Timer.values())
+			sb.append(String.format("%-20s %d calls, %.3f ms%n", t.name().toLowerCase(), calls(t), nanos(t) / 1e6));
+		for (Distribution d : Distribution.values()) {
+			Histogram h = histogram(d);
+			sb.append(String.format("%-20s count %d, mean %.3f, p50 %d, p90 %d, p99 %d, max %d%n",
+					d.name().toLowerCase(), h.count(), h.mean(), h.percentile(0.5), h.percentile(0.9),
+					h.percentile(0.99), h.max()));
+		}
+		return sb.toString();
+	}
+}
@@ -1,6 +1,7 @@
 package SyntaxUtils;
 
 import java.io.BufferedReader;
+import java.io.File;
 import java.io.IOException;
 import java.io.InputStreamReader;
 import java.io.PipedInputStream;
@@ -21,15 +22,138 @@ import fig.basic.LogInfo;
 public class PerceptronClassifier extends PatriciaTrie<String, Integer> {
 	private static final long serialVersionUID = -8291040694796616684L;
 	
+	// weights of the hashed features, see HashedFeatureSet
+	private LongIntMap _hashedWeights = new LongIntMap();
+	// array-backed weights, replace the trie and _hashedWeights once set
+	private ArrayWeights _weights = null;
+	// read-only weights of a binary model, copied into _weights on the first update
+	private MappedWeights _mapped = null;
+	
 	// advanced Trie
 	public PerceptronClassifier(){
 		super(StringKeyAnalyzer.CHAR);
 	}
 	public PerceptronClassifier(PerceptronClassifier ano){
 		super(ano);
+		_hashedWeights = new LongIntMap(ano._hashedWeights);
+		if (ano._weights != null)
+			_weights = new ArrayWeights(ano._weights);
+		_mapped = ano._mapped;
+	}
+	
+	/**
+	 * Move all the weights into an ArrayWeights, so that scoring and
+	 * updating do not go through the trie any more.
+	 */
+	public synchronized void useArrayWeights(){
+		if (_weights != null)
+			return;
+		if (_mapped != null) {
+			_weights = _mapped.toArrayWeights();
+			_mapped = null;
+			return;
+		}
+		_weights = new ArrayWeights();
+		for (Entry<String, Integer> e: entrySet())
+			_weights.add(e.getKey(), e.getValue());
+		for (int i = 0; i < _hashedWeights.size(); ++i)
+			_weights.add(_hashedWeights.keyAt(i), _hashedWeights.valueAt(i));
+		clear();
+		_hashedWeights = new LongIntMap();
+	}
+	
+	/**
+	 * Start the averaged perceptron. The weights are moved to an
+	 * ArrayWeights, which keeps a timestamp per feature so that the averages
+	 * are updated lazily, only for the features touched by an update.
+	 * Call tick() once per training instance, after its update, and
+	 * finalizeAverage() to get the model for parsing.
+	 */
+	public synchronized void startAveraging(){
+		useArrayWeights();
+		_weights.startAveraging();
 	}
 	
-	public int score(PatriciaTrie<String, Integer> feats) {
+	public boolean isAveraging(){
+		return _weights != null && _weights.isAveraging();
+	}
+	
+	/**
+	 * One training instance has been seen and its update is done, a no-op
+	 * unless averaging.
+	 * The clock of ArrayWeights is atomic, so no lock is taken.
+	 */
+	public void tick(){
+		if (isAveraging())
+			_weights.tick();
+	}
+	
+	/**
+	 * @return a new classifier with the averaged weights, or a clone if
+	 * averaging is not started. Training could go on with this one.
+	 * It takes O(model size), as every weight is settled and copied, so
+	 * call it once at the end of training rather than per epoch.
+	 */
+	public synchronized PerceptronClassifier finalizeAverage(){
+		if (!isAveraging())
+			return clone();
+		PerceptronClassifier avg = new PerceptronClassifier();
+		avg._weights = _weights.average();
+		avg._weights.rebuild();
+		return avg;
+	}
+	
+	/**
+	 * Let training threads update the weights without locking the whole
+	 * classifier, see ArrayWeights.setConcurrent.
+	 */
+	public synchronized void setConcurrent(boolean concurrent){
+		useArrayWeights();
+		_weights.setConcurrent(concurrent);
+	}
+	
+	public boolean isConcurrent(){
+		return _weights != null && _weights.isConcurrent();
+	}
+	
+	/**
+	 * weights += scale * another
+	 */
+	public synchronized void addScaled(PerceptronClassifier another, float scale){
+		useArrayWeights();
+		another.useArrayWeights();
+		_weights.addAll(another._weights, scale);
+	}
+	
+	/**
+	 * @return the average of the classifiers, as in iterative parameter mixing
+	 */
+	public static PerceptronClassifier mix(List<PerceptronClassifier> parts){
+		PerceptronClassifier mixed = new PerceptronClassifier();
+		mixed.useArrayWeights();
+		for (PerceptronClassifier part: parts)
+			mixed.addScaled(part, 1.0f / parts.size());
+		mixed.rebuild();
+		return mixed;
+	}
+	
+	public boolean isArrayBacked(){
+		return _weights != null;
+	}
+	
+	public int numOfFeatures(){
+		if (_mapped != null)
+			return _mapped.size();
+		if (_weights != null)
+			return _weights.size();
+		return size() + _hashedWeights.size();
+	}
+	
+	public double score(PatriciaTrie<String, Integer> feats) {
+		if (_mapped != null)
+			return _mapped.score(feats);
+		if (_weights != null)
+			return _weights.score(feats);
 		int score = 0;
 		for (Entry<String, Integer> e: feats.entrySet()){
 			Integer i = get(e.getKey());
@@ -38,25 +162,107 @@ public class PerceptronClassifier extends PatriciaTrie<String, Integer> {
 		return score;
 		
 	}
-	public synchronized void plus(PatriciaTrie<String, Integer> another) {
-		for (Entry<String, Integer> e: another.entrySet()){
-			Integer score = get(e.getKey());
-			score = score == null ? e.getValue() : e.getValue() + score;
-			put(e.getKey(), score);
+	public void plus(PatriciaTrie<String, Integer> another) {
+		if (isConcurrent()) {
+			_weights.add(another, 1);
+			return;
+		}
+		synchronized (this) {
+			if (_mapped != null)
+				useArrayWeights();
+			if (_weights != null) {
+				_weights.add(another, 1);
+				return;
+			}
+			for (Entry<String, Integer> e: another.entrySet()){
+				Integer score = get(e.getKey());
+				score = score == null ? e.getValue() : e.getValue() + score;
+				put(e.getKey(), score);
+			}
 		}
 	}
 	
-	public synchronized void minus(PatriciaTrie<String, Integer> another){
-		for (Entry<String, Integer> e: another.entrySet()){
-			Integer score = get(e.getKey());
-			score = score == null ? - e.getValue() : score - e.getValue();
-			put(e.getKey(), score);
+	public void minus(PatriciaTrie<String, Integer> another) {
+		if (isConcurrent()) {
+			_weights.add(another, -1);
+			return;
 		}
+		synchronized (this) {
+			if (_mapped != null)
+				useArrayWeights();
+			if (_weights != null) {
+				_weights.add(another, -1);
+				return;
+			}
+			for (Entry<String, Integer> e: another.entrySet()){
+				Integer score = get(e.getKey());
+				score = score == null ? - e.getValue() : score - e.getValue();
+				put(e.getKey(), score);
+			}
+		}
+	}
+	
+	public double score(HashedFeatureSet feats) {
+		if (_mapped != null)
+			return _mapped.score(feats);
+		if (_weights != null)
+			return _weights.score(feats);
+		int score = 0;
+		for (int i = 0; i < feats.size(); ++i)
+			score += feats.valueAt(i) * _hashedWeights.get(feats.keyAt(i));
+		return score;
 	}
+	
+	public void plus(HashedFeatureSet another) {
+		if (isConcurrent()) {
+			_weights.add(another, 1);
+			return;
+		}
+		synchronized (this) {
+			if (_mapped != null)
+				useArrayWeights();
+			if (_weights != null) {
+				_weights.add(another, 1);
+				return;
+			}
+			for (int i = 0; i < another.size(); ++i)
+				_hashedWeights.adjust(another.keyAt(i), another.valueAt(i));
+		}
+	}
+	
+	public void minus(HashedFeatureSet another) {
+		if (isConcurrent()) {
+			_weights.add(another, -1);
+			return;
+		}
+		synchronized (this) {
+			if (_mapped != null)
+				useArrayWeights();
+			if (_weights != null) {
+				_weights.add(another, -1);
+				return;
+			}
+			for (int i = 0; i < another.size(); ++i)
+				_hashedWeights.adjust(another.keyAt(i), -another.valueAt(i));
+		}
+	}
+	
 	/**
 	 * @author wsun
 	 */
-	public int score(List<String> strFeats) {
+	public double score(List<String> strFeats) {
+		if (_mapped != null) {
+			double score = 0;
+			for (String f: strFeats)
+				score += _mapped.get(f);
+			return score;
+		}
+		if (_weights != null) {
+			double score = 0;
+			for (String f: strFeats)
+				score += _weights.get(f);
+			return score;
+		}
 		int score = 0;
 		for (String f: strFeats){
 			Integer weight = get(f);
@@ -69,6 +275,13 @@ public class PerceptronClassifier extends PatriciaTrie<String, Integer> {
 	 * @author wsun
 	 */	
 	public void increaseOne(List<String> strFeats) {
+		if (_mapped != null)
+			useArrayWeights();
+		if (_weights != null) {
+			for (String f : strFeats)
+				_weights.add(f, 1);
+			return;
+		}
 		for (String f : strFeats){
 			Integer weight = get(f);
 			if (weight != null)
@@ -81,6 +294,13 @@ public class PerceptronClassifier extends PatriciaTrie<String, Integer> {
 	 * @author wsun
 	 */
 	public void decreaseOne(List<String> strFeats){
+		if (_mapped != null)
+			useArrayWeights();
+		if (_weights != null) {
+			for (String f : strFeats)
+				_weights.add(f, -1);
+			return;
+		}
 		for (String f : strFeats){
 			Integer weight = get(f);
 			if (weight != null)
@@ -91,7 +311,14 @@ public class PerceptronClassifier extends PatriciaTrie<String, Integer> {
 	}
 	
 	public void rebuild(){
+		if (_mapped != null)
+			return;
+		if (_weights != null) {
+			_weights.rebuild();
+			return;
+		}
 		traverse(new RebuildCursor());
+		_hashedWeights.removeZeros();
 	}
 	
 	private class RebuildCursor implements Cursor<String, Integer>{
@@ -103,19 +330,90 @@ public class PerceptronClassifier extends PatriciaTrie<String, Integer> {
 	
 	public void dump(Writer w) throws IOException{
 		rebuild();
+		if (_mapped != null) {
+			_mapped.dump(w);
+			return;
+		}
+		if (_weights != null) {
+			_weights.dump(w);
+			return;
+		}
 		for (Entry<String, Integer> e: this.entrySet())
 			w.write(e.getValue() + "\t" + e.getKey() + "\n");
 		w.write("\n");
 	}
 	
+	/**
+	 * Load the weights written by dump(). The weights of averaged or mixed
+	 * models are fractional, the first one read moves all the weights into
+	 * an ArrayWeights, as the trie only holds integers.
+	 * @param br
+	 * @throws IOException
+	 */
 	public void load(BufferedReader br) throws IOException{
+		if (_mapped != null)
+			useArrayWeights();
 		String s = null;
 		s = br.readLine();
 		while(s!=null && s.trim().length() > 0){
 			String[] ss = s.split("\t", 2);
-			int value = Integer.parseInt(ss[0].trim());
 			String key = ss[1].trim();
-			this.put(key, value);
+			String value = ss[0].trim();
+			if (_weights == null && !isIntegral(value))
+				useArrayWeights();
+			if (_weights != null)
+				_weights.add(key, Float.parseFloat(value));
+			else
+				this.put(key, Integer.parseInt(value));
+			s = br.readLine();
+		}
+	}
+	
+	// whether value is written as an integer, see ArrayWeights.format
+	private static boolean isIntegral(String value){
+		for (int i = 0; i < value.length(); ++i) {
+			char c = value.charAt(i);
+			if (!(c >= '0' && c <= '9') && !(i == 0 && c == '-'))
+				return false;
+		}
+		return value.length() > 0;
+	}
+	
+	/**
+	 * Dump the weights of hashed features, one "value\tkey" per line, and a blank
+	 * line at the end.
+	 * @param w
+	 * @throws IOException
+	 */
+	public void dumpHashed(Writer w) throws IOException{
+		rebuild();
+		if (_mapped != null) {
+			_mapped.dumpHashed(w);
+			return;
+		}
+		if (_weights != null) {
+			_weights.dumpHashed(w);
+			return;
+		}
+		for (int i = 0; i < _hashedWeights.size(); ++i)
+			w.write(_hashedWeights.valueAt(i) + "\t" + _hashedWeights.keyAt(i) + "\n");
+		w.write("\n");
+	}
+	
+	public void loadHashed(BufferedReader br) throws IOException{
+		if (_mapped != null)
+			useArrayWeights();
+		String s = br.readLine();
+		while(s!=null && s.trim().length() > 0){
+			String[] ss = s.split("\t", 2);
+			long key = Long.parseLong(ss[1].trim());
+			String value = ss[0].trim();
+			if (_weights == null && !isIntegral(value))
+				useArrayWeights();
+			if (_weights != null)
+				_weights.add(key, Float.parseFloat(value));
+			else
+				_hashedWeights.put(key, Integer.parseInt(value));
 			s = br.readLine();
 		}
 	}
@@ -125,9 +423,45 @@ public class PerceptronClassifier extends PatriciaTrie<String, Integer> {
 		PerceptronClassifier newOne = new PerceptronClassifier();
 		for (Entry<String, Integer> e: entrySet())
 			newOne.put(e.getKey(), e.getValue());
+		newOne._hashedWeights = new LongIntMap(_hashedWeights);
+		if (_weights != null)
+			newOne._weights = new ArrayWeights(_weights);
+		newOne._mapped = _mapped;
 		return newOne;
 	}
 	
+	/**
+	 * Write all the weights in the binary format of MappedWeights.
+	 * @param f
+	 * @throws IOException
+	 */
+	public synchronized void dumpBinary(File f) throws IOException{
+		if (_mapped != null)
+			useArrayWeights();
+		ArrayWeights weights = _weights;
+		if (weights == null) {
+			weights = new ArrayWeights();
+			for (Entry<String, Integer> e: entrySet())
+				weights.add(e.getKey(), e.getValue());
+			for (int i = 0; i < _hashedWeights.size(); ++i)
+				weights.add(_hashedWeights.keyAt(i), _hashedWeights.valueAt(i));
+		}
+		MappedWeights.write(weights, f);
+	}
+	
+	/**
+	 * Replace all the weights by the ones mapped from a binary model.
+	 * The model is not read until the features are looked up.
+	 * @param f
+	 * @throws IOException
+	 */
+	public synchronized void loadBinary(File f) throws IOException{
+		clear();
+		_hashedWeights = new LongIntMap();
+		_weights = null;
+		_mapped = MappedWeights.open(f);
+	}
+	
 	public static void main(String args[]) throws IOException{
 		PerceptronClassifier weight = new PerceptronClassifier();
 		FeatureSet featSet = new FeatureSet();
@@ -7,7 +7,9 @@ import java.io.IOException;
 import java.io.InputStreamReader;
 import java.io.PrintWriter;
 import java.util.ArrayList;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
 
 import LinguaView.syntax.CCGNode;
 import LinguaView.syntax.CCGTerminalNode;
@@ -48,6 +50,134 @@ public class SentenceForCCGParsing extends Sentence {
 		super();
 	}
 	
+	/**
+	 * Padding of the atom arrays on each side, the widest feature window.
+	 */
+	public static final int PADDING = 3;
+	
+	/*
+	 * Atoms of the words from -PADDING to length() + PADDING - 1, built once
+	 * the sentence is read, see buildAtoms()
+	 */
+	private volatile int[] _wordAtoms;
+	private int[] _lowerWordAtoms;
+	private int[] _posAtoms;
+	private int[] _addAtoms;
+	// the strings of the atoms of this sentence only, atom -2 - i is the i-th one
+	private String[] _localAtoms;
+	private long[] _localFingerprints;
+	
+	/**
+	 * Look the words, lowercased words, POSs and additional info up, with the
+	 * #BOS#/#EOS# sentinels in the padding, so that the parser reads them by
+	 * index instead of through word(), pos() and additionalInfo().
+	 * The atom of a string is its ID in HashedFeatureSet.ATOMS if it is there,
+	 * otherwise a negative one of this sentence, so that parsing never adds
+	 * the words read to the global index. See atomString(int).
+	 */
+	private synchronized void buildAtoms(){
+		if (_wordAtoms != null)
+			return;
+		StringIndexer atoms = HashedFeatureSet.ATOMS;
+		Map<String, Integer> local = new HashMap<String, Integer>();
+		List<String> localAtoms = new ArrayList<String>();
+		int n = length() + 2 * PADDING;
+		int[] wordAtoms = new int[n];
+		_lowerWordAtoms = new int[n];
+		_posAtoms = new int[n];
+		_addAtoms = new int[n];
+		for (int k = -PADDING; k < length() + PADDING; ++k){
+			String w = word(k);
+			if (k < 0 || k >= length()) {
+				// the sentinels are the same in every sentence
+				wordAtoms[k + PADDING] = atoms.getIndex(w);
+				_lowerWordAtoms[k + PADDING] = atoms.getIndex(w.toLowerCase());
+				_posAtoms[k + PADDING] = atoms.getIndex(pos(k));
+				_addAtoms[k + PADDING] = atoms.getIndex(additionalInfo(k));
+				continue;
+			}
+			wordAtoms[k + PADDING] = lookupAtom(w, local, localAtoms);
+			_lowerWordAtoms[k + PADDING] = lookupAtom(w.toLowerCase(), local, localAtoms);
+			_posAtoms[k + PADDING] = lookupAtom(pos(k), local, localAtoms);
+			_addAtoms[k + PADDING] = lookupAtom(additionalInfo(k), local, localAtoms);
+		}
+		_localAtoms = localAtoms.toArray(new String[localAtoms.size()]);
+		_localFingerprints = new long[_localAtoms.length];
+		for (int i = 0; i < _localAtoms.length; ++i)
+			_localFingerprints[i] = StringIndexer.fingerprint(_localAtoms[i]);
+		_wordAtoms = wordAtoms;
+	}
+	
+	private static int lookupAtom(String s, Map<String, Integer> local, List<String> localAtoms){
+		if (s == null)
+			return HashedFeatureSet.ATOMS.getIndex(s);
+		// local first, so that a string has one atom in the sentence
+		Integer atom = local.get(s);
+		if (atom != null)
+			return atom;
+		atom = HashedFeatureSet.ATOMS.indexOf(s);
+		if (atom < 0) {
+			atom = -2 - localAtoms.size();
+			localAtoms.add(s);
+		}
+		local.put(s, atom);
+		return atom;
+	}
+	
+	/**
+	 * @param atom an atom of this sentence or an ID in HashedFeatureSet.ATOMS
+	 * @return its string
+	 */
+	public String atomString(int atom){
+		return atom >= 0 ? HashedFeatureSet.ATOMS.get(atom) : _localAtoms[-2 - atom];
+	}
+	
+	/**
+	 * @return the fingerprint of atomString(atom), see StringIndexer.fingerprint
+	 */
+	public long atomFingerprint(int atom){
+		return atom >= 0 ? HashedFeatureSet.ATOMS.fingerprint(atom) : _localFingerprints[-2 - atom];
+	}
+	
+	/**
+	 * @param k from -PADDING to length() + PADDING - 1
+	 * @return the atom of word(k)
+	 */
+	public int wordAtom(int k){
+		if (_wordAtoms == null)
+			buildAtoms();
+		return _wordAtoms[k + PADDING];
+	}
+	
+	public int lowerWordAtom(int k){
+		if (_wordAtoms == null)
+			buildAtoms();
+		return _lowerWordAtoms[k + PADDING];
+	}
+	
+	/**
+	 * @return word(k) in lower case, built once
+	 */
+	public String lowerWord(int k){
+		return atomString(lowerWordAtom(k));
+	}
+	
+	public int posAtom(int k){
+		if (_wordAtoms == null)
+			buildAtoms();
+		return _posAtoms[k + PADDING];
+	}
+	
+	/**
+	 * @return the atom of additionalInfo(k), which is the one of "null" if
+	 * the sentence has no additional info
+	 */
+	public int addAtom(int k){
+		if (_wordAtoms == null)
+			buildAtoms();
+		return _addAtoms[k + PADDING];
+	}
+	
 	public static List<SentenceForCCGParsing> readSents(String filename) throws IOException{
 		return readSents(filename, true, "UTF-8");
 	}
@@ -55,61 +185,84 @@ public class SentenceForCCGParsing extends Sentence {
 	public static List<SentenceForCCGParsing> readSents (String filename, boolean firstLineIsSource, String encoding) throws IOException{
 		List<SentenceForCCGParsing> sents = new ArrayList<SentenceForCCGParsing>();
 		BufferedReader br = new BufferedReader(new InputStreamReader(new FileInputStream(filename), encoding));
-		String s = br.readLine();
-		SentenceForCCGParsing sent;// = new SentenceForCCGParsing();
-		while (s!=null){
-//			s = br.readLine();
-			if (s.trim().length() !=0){
-				sent = new SentenceForCCGParsing();
-				if (firstLineIsSource){
-					sent.source = s;
-					s = br.readLine();
-				}
-				String ss[] = s.split("\\s");
-				for (String wp: ss){
-					int x = wp.lastIndexOf('/');
-					sent.words.add(wp.substring(0, x));
-					sent.poss.add(wp.substring(x+1));
-				}
-				sents.add(sent);
-			} else {
-				continue;
-			}
-			s = br.readLine();
+		SentenceForCCGParsing sent = readSent(br, firstLineIsSource);
+		while (sent != null){
+			sents.add(sent);
+			sent = readSent(br, firstLineIsSource);
 		}
 		br.close();
 		return sents;
 	}
 	
+	/**
+	 * Read the next sentence in "word/pos word/pos ..." format, so that a
+	 * corpus could be streamed instead of loaded as a whole.
+	 * @param br
+	 * @param firstLineIsSource
+	 * @return the next sentence, or null at the end of the stream
+	 * @throws IOException
+	 */
+	public static SentenceForCCGParsing readSent(BufferedReader br, boolean firstLineIsSource) throws IOException{
+		String s = br.readLine();
+		while (s != null && s.trim().length() == 0)
+			s = br.readLine();
+		if (s == null)
+			return null;
+		SentenceForCCGParsing sent = new SentenceForCCGParsing();
+		if (firstLineIsSource){
+			sent.source = s;
+			s = br.readLine();
+			if (s == null)
+				return null;
+		}
+		String ss[] = s.split("\\s");
+		for (String wp: ss){
+			int x = wp.lastIndexOf('/');
+			sent.words.add(wp.substring(0, x));
+			sent.poss.add(wp.substring(x+1));
+		}
+		return sent;
+	}
+	
 	public static List<SentenceForCCGParsing> readSentsInColumn(String filename, boolean firstLineIsSource, String encoding) throws IOException{
 		List<SentenceForCCGParsing> sents = new ArrayList<SentenceForCCGParsing>();
 		BufferedReader br = new BufferedReader(new InputStreamReader(new FileInputStream(filename), encoding));
-		String s = br.readLine();
-		SentenceForCCGParsing sent = null;// = new SentenceForCCGParsing();
-		while (s!=null){
-			if (s.trim().length() ==0){
-				if (sent != null)
-					sents.add(sent);
-				sent = null;
-			}
-			else{
-				if (sent == null){
-					sent = new SentenceForCCGParsing();
-					if (firstLineIsSource){
-						sent.source = s;
-						s = br.readLine();
-						continue;
-					}
-				}
-				String ss[] = s.split("\t");
-				sent.words.add(ss[0]);
-				sent.poss.add(ss[1]);
-			}
-			s = br.readLine();
+		SentenceForCCGParsing sent = readSentInColumn(br, firstLineIsSource);
+		while (sent != null){
+			sents.add(sent);
+			sent = readSentInColumn(br, firstLineIsSource);
 		}
 		br.close();
 		return sents;
 	}
+	
+	/**
+	 * Read the next sentence in column ("word\tpos" per line) format.
+	 * Sentences are separated by blank lines.
+	 * @param br
+	 * @param firstLineIsSource
+	 * @return the next sentence, or null at the end of the stream
+	 * @throws IOException
+	 */
+	public static SentenceForCCGParsing readSentInColumn(BufferedReader br, boolean firstLineIsSource) throws IOException{
+		String s = br.readLine();
+		while (s != null && s.trim().length() == 0)
+			s = br.readLine();
+		if (s == null)
+			return null;
+		SentenceForCCGParsing sent = new SentenceForCCGParsing();
+		if (firstLineIsSource){
+			sent.source = s;
+			s = br.readLine();
+		}
+		while (s != null && s.trim().length() != 0){
+			String ss[] = s.split("\t");
+			sent.words.add(ss[0]);
+			sent.poss.add(ss[1]);
+			s = br.readLine();
+		}
+		return sent;
+	}
 	@Override
 	public String toString(){
 		StringBuffer sb = new StringBuffer();// = new StringBuffer(source + "\n");
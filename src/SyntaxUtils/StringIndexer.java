@@ -0,0 +1,98 @@
+package SyntaxUtils;
+
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Thread-safe interning of strings into dense int IDs.
+ * Besides its ID, every string gets a 64-bit fingerprint computed from its
+ * characters only, so that anything hashed from fingerprints (e.g. the
+ * hashed feature IDs) does not depend on the interning order and could be
+ * saved and loaded across runs.
+ */
+public class StringIndexer {
+	private static final String NULL = "null";
+
+	private ConcurrentHashMap<String, Integer> _index = new ConcurrentHashMap<String, Integer>();
+	private volatile String[] _strings = new String[1024];
+	private volatile long[] _fingerprints = new long[1024];
+	private volatile int _size = 0;
+
+	/**
+	 * Get the ID of s, and intern s if it is new.
+	 * null is interned as "null", just as string concatenation does.
+	 */
+	public int getIndex(String s) {
+		if (s == null)
+			s = NULL;
+		Integer i = _index.get(s);
+		if (i != null)
+			return i;
+		return add(s);
+	}
+
+	/**
+	 * @return the ID of s, or -1 if s is not interned
+	 */
+	public int indexOf(String s) {
+		if (s == null)
+			s = NULL;
+		Integer i = _index.get(s);
+		return i == null ? -1 : i;
+	}
+
+	private synchronized int add(String s) {
+		Integer i = _index.get(s);
+		if (i != null)
+			return i;
+		int id = _size;
+		if (id == _strings.length) {
+			String[] strings = new String[id * 2];
+			long[] fingerprints = new long[id * 2];
+			System.arraycopy(_strings, 0, strings, 0, id);
+			System.arraycopy(_fingerprints, 0, fingerprints, 0, id);
+			_strings = strings;
+			_fingerprints = fingerprints;
+		}
+		_strings[id] = s;
+		_fingerprints[id] = fingerprint(s);
+		_size = id + 1;
+		_index.put(s, id);
+		return id;
+	}
+
+	public String get(int id) {
+		return _strings[id];
+	}
+
+	public long fingerprint(int id) {
+		return _fingerprints[id];
+	}
+
+	public int size() {
+		return _size;
+	}
+
+	/**
+	 * 64-bit FNV-1a over the characters, followed by a final mix.
+	 */
+	public static long fingerprint(String s) {
+		long h = 0xcbf29ce484222325L;
+		for (int i = 0; i < s.length(); ++i) {
+			h ^= s.charAt(i);
+			h *= 0x100000001b3L;
+		}
+		return mix(h);
+	}
+
+	/**
+	 * Finalizer of MurmurHash3, every bit of h affects every bit of the result.
+	 */
+	public static long mix(long h) {
+		h ^= h >>> 33;
+		h *= 0xff51afd7ed558ccdL;
+		h ^= h >>> 33;
+		h *= 0xc4ceb9fe1a85ec53L;
+		h ^= h >>> 33;
+		return h;
+	}
+}
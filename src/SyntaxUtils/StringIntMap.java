@@ -0,0 +1,141 @@
+package SyntaxUtils;
+
+import java.io.Serializable;
+import java.util.Arrays;
+
+/**
+ * Open-addressing map from String to int, without boxing.
+ * Keys are hashed by StringIndexer.fingerprint, and the fingerprints are
+ * kept with the keys, so a lookup only compares the characters of a key
+ * whose fingerprint matches. As in LongIntMap, entries are kept in
+ * insertion order in dense arrays, the hash table only holds positions in
+ * these arrays, and one thread may put new keys while others call indexOf,
+ * containsKey, get, keyAt and valueAt without locking.
+ * Missing keys are mapped to 0.
+ */
+public class StringIntMap implements Serializable {
+	private static final long serialVersionUID = -3342710462093478263L;
+
+	private volatile String[] _keys;
+	private volatile long[] _fingerprints;
+	private volatile int[] _values;
+	private volatile int _size = 0;
+	/* position + 1 in _keys, 0 for an empty bucket */
+	private volatile int[] _table;
+
+	public StringIntMap() {
+		this(16);
+	}
+
+	public StringIntMap(int expectedSize) {
+		int capacity = 4;
+		while (capacity < expectedSize * 2)
+			capacity <<= 1;
+		_table = new int[capacity];
+		_keys = new String[capacity / 2];
+		_fingerprints = new long[capacity / 2];
+		_values = new int[capacity / 2];
+	}
+
+	public StringIntMap(StringIntMap another) {
+		_keys = another._keys.clone();
+		_fingerprints = another._fingerprints.clone();
+		_values = another._values.clone();
+		_size = another._size;
+		_table = another._table.clone();
+	}
+
+	/**
+	 * @return the bucket of key in table, or the empty one it goes to
+	 */
+	private int bucket(int[] table, String key, long fingerprint) {
+		String[] keys = _keys;
+		long[] fingerprints = _fingerprints;
+		int mask = table.length - 1;
+		int b = (int) StringIndexer.mix(fingerprint) & mask;
+		while (table[b] != 0) {
+			int i = table[b] - 1;
+			if (fingerprints[i] == fingerprint && keys[i].equals(key))
+				return b;
+			b = (b + 1) & mask;
+		}
+		return b;
+	}
+
+	/**
+	 * @return the position of key in insertion order, or -1
+	 */
+	public int indexOf(String key) {
+		long fingerprint = StringIndexer.fingerprint(key);
+		// _size first, the positions from it on may not be written yet
+		int size = _size;
+		int[] table = _table;
+		String[] keys = _keys;
+		long[] fingerprints = _fingerprints;
+		int mask = table.length - 1;
+		int b = (int) StringIndexer.mix(fingerprint) & mask;
+		for (int i; (i = table[b] - 1) >= 0; b = (b + 1) & mask) {
+			if (i < size && fingerprints[i] == fingerprint && key.equals(keys[i]))
+				return i;
+		}
+		return -1;
+	}
+
+	public boolean containsKey(String key) {
+		return indexOf(key) >= 0;
+	}
+
+	public int get(String key) {
+		int i = indexOf(key);
+		return i < 0 ? 0 : _values[i];
+	}
+
+	public void put(String key, int value) {
+		long fingerprint = StringIndexer.fingerprint(key);
+		int[] table = _table;
+		int b = bucket(table, key, fingerprint);
+		if (table[b] != 0) {
+			_values[table[b] - 1] = value;
+			return;
+		}
+		int size = _size;
+		String[] keys = _keys;
+		long[] fingerprints = _fingerprints;
+		int[] values = _values;
+		if (size == keys.length) {
+			keys = Arrays.copyOf(keys, size * 2);
+			fingerprints = Arrays.copyOf(fingerprints, size * 2);
+			values = Arrays.copyOf(values, size * 2);
+			_keys = keys;
+			_fingerprints = fingerprints;
+			_values = values;
+		}
+		keys[size] = key;
+		fingerprints[size] = fingerprint;
+		values[size] = value;
+		table[b] = size + 1;
+		if ((size + 1) * 2 > table.length) {
+			table = new int[table.length * 2];
+			for (int i = 0; i <= size; ++i)
+				table[bucket(table, keys[i], fingerprints[i])] = i + 1;
+			_table = table;
+		}
+		_size = size + 1;
+	}
+
+	public int size() {
+		return _size;
+	}
+
+	public boolean isEmpty() {
+		return _size == 0;
+	}
+
+	public String keyAt(int i) {
+		return _keys[i];
+	}
+
+	public int valueAt(int i) {
+		return _values[i];
+	}
+}
@@ -0,0 +1,101 @@
+package SyntaxUtils;
+
+/**
+ * The k best of int candidates by double scores, kept in a min-heap of k
+ * primitive entries, so that a worse candidate is dropped as soon as it is
+ * added. Of equal scores, the candidate of the smaller id is the better one.
+ */
+public class TopCandidates {
+	private int[] _ids;
+	private double[] _scores;
+	private int _size = 0;
+
+	public TopCandidates(int k) {
+		k = k > 0 ? k : 1;
+		_ids = new int[k];
+		_scores = new double[k];
+	}
+
+	/**
+	 * Keep the candidate if it is one of the k best so far.
+	 */
+	public void add(int id, double score) {
+		if (_size < _ids.length) {
+			_ids[_size] = id;
+			_scores[_size] = score;
+			heapifyUp(_size);
+			++_size;
+		} else if (isWorse(_ids[0], _scores[0], id, score)) {
+			_ids[0] = id;
+			_scores[0] = score;
+			heapifyDown(0);
+		}
+	}
+
+	public int size() {
+		return _size;
+	}
+
+	public int capacity() {
+		return _ids.length;
+	}
+
+	/**
+	 * Move the kept candidates into ids and scores, the best first, and
+	 * empty the heap.
+	 * @return the number of candidates moved
+	 */
+	public int drain(int[] ids, double[] scores) {
+		int n = _size;
+		for (int i = n - 1; i >= 0; --i) {
+			ids[i] = _ids[0];
+			scores[i] = _scores[0];
+			--_size;
+			swap(0, _size);
+			heapifyDown(0);
+		}
+		return n;
+	}
+
+	/**
+	 * @return if candidate (id1, score1) is worse than (id2, score2)
+	 */
+	public static boolean isWorse(int id1, double score1, int id2, double score2) {
+		return score1 < score2 || (score1 == score2 && id1 > id2);
+	}
+
+	private void heapifyUp(int i) {
+		while (i > 0) {
+			int parent = (i - 1) / 2;
+			if (!isWorse(_ids[i], _scores[i], _ids[parent], _scores[parent]))
+				return;
+			swap(i, parent);
+			i = parent;
+		}
+	}
+
+	private void heapifyDown(int i) {
+		while (true) {
+			int min = i;
+			int left = 2 * i + 1;
+			int right = left + 1;
+			if (left < _size && isWorse(_ids[left], _scores[left], _ids[min], _scores[min]))
+				min = left;
+			if (right < _size && isWorse(_ids[right], _scores[right], _ids[min], _scores[min]))
+				min = right;
+			if (min == i)
+				return;
+			swap(i, min);
+			i = min;
+		}
+	}
+
+	private void swap(int i, int j) {
+		int id = _ids[i];
+		_ids[i] = _ids[j];
+		_ids[j] = id;
+		double score = _scores[i];
+		_scores[i] = _scores[j];
+		_scores[j] = score;
+	}
+}